@@ -0,0 +1,197 @@
+package org.infalible.selenium.json;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.infalible.selenium.json.Json.OBJECT_TYPE;
+import static org.infalible.selenium.json.Json.Representation.COMPACT;
+
+/**
+ * Writes values as canonical JSON, so that equal values are always written as exactly the same
+ * characters. Object members are sorted by name, and there's no whitespace. Collections other than
+ * lists have no order of their own, so their elements are sorted by their canonical JSON.
+ *
+ * <p>Numbers are written the same way whatever their type. Whole numbers that fit in a long are
+ * written as integers, so {@code 1}, {@code 1L}, {@code 1.0} and {@code BigInteger.ONE} all become
+ * {@code 1}. Anything else is written as {@link BigDecimal#toString()} writes it once trailing
+ * zeros are stripped, such as {@code 2.5} or {@code 1E+20}. Doubles that are whole numbers are
+ * taken at their exact value, and other doubles at the shortest decimal that reads back as them.
+ */
+public class CanonicalJson {
+
+  // Whole numbers this size and beyond can't be cast to a long.
+  private static final double LONG_RANGE = 0x1p63;
+  private static final BigDecimal MIN_LONG = BigDecimal.valueOf(Long.MIN_VALUE);
+  private static final BigDecimal MAX_LONG = BigDecimal.valueOf(Long.MAX_VALUE);
+
+  private CanonicalJson() {
+    // Utility class
+  }
+
+  public static String toJson(Object value) throws UncheckedIOException {
+    StringWriter writer = new StringWriter();
+    write(value, writer);
+    return writer.toString();
+  }
+
+  public static void write(Object value, Writer to) throws UncheckedIOException {
+    try {
+      JsonWriter out = new JsonWriter(to);
+      // Only so that values other than objects and arrays may be written on their own.
+      out.setLenient(true);
+      writeValue(out, value);
+      out.flush();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * @return A digest of the value's canonical JSON, which is computed as the JSON is written rather
+   *     than from a copy of it. The digest is the first 128 bits of its SHA-256 hash.
+   */
+  public static Fingerprint fingerprint(Object value) throws UncheckedIOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // Every JRE is required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+
+    OutputStream digesting = new OutputStream() {
+      @Override
+      public void write(int b) {
+        digest.update((byte) b);
+      }
+
+      @Override
+      public void write(byte[] bytes, int offset, int length) {
+        digest.update(bytes, offset, length);
+      }
+    };
+    try (Writer writer = new Utf8Writer(digesting)) {
+      write(value, writer);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    ByteBuffer hash = ByteBuffer.wrap(digest.digest());
+    return new Fingerprint(hash.getLong(), hash.getLong());
+  }
+
+  private static void writeValue(JsonWriter out, Object value) throws IOException {
+    if (value == null) {
+      out.nullValue();
+    } else if (value instanceof String) {
+      out.value((String) value);
+    } else if (value instanceof Boolean) {
+      out.value((boolean) (Boolean) value);
+    } else if (value instanceof Number) {
+      writeNumber(out, (Number) value);
+    } else if (value instanceof Map) {
+      writeObject(out, (Map<?, ?>) value);
+    } else if (value instanceof List) {
+      out.beginArray();
+      for (Object item : (List<?>) value) {
+        writeValue(out, item);
+      }
+      out.endArray();
+    } else if (value instanceof Collection) {
+      List<String> items = new ArrayList<>();
+      for (Object item : (Collection<?>) value) {
+        items.add(toJson(item));
+      }
+      Collections.sort(items);
+
+      out.beginArray();
+      for (String item : items) {
+        out.jsonValue(item);
+      }
+      out.endArray();
+    } else {
+      // Let Gson decide what anything else looks like, and then write that out canonically.
+      Object asJson = Json.newInput(new StringReader(Json.TO_JSON.apply(value)), COMPACT)
+          .read(OBJECT_TYPE);
+      writeValue(out, asJson);
+    }
+  }
+
+  private static void writeNumber(JsonWriter out, Number number) throws IOException {
+    if (number instanceof Long
+        || number instanceof Integer
+        || number instanceof Short
+        || number instanceof Byte) {
+      out.value(number.longValue());
+      return;
+    }
+
+    BigDecimal decimal;
+    if (number instanceof BigDecimal) {
+      decimal = (BigDecimal) number;
+    } else if (number instanceof BigInteger) {
+      decimal = new BigDecimal((BigInteger) number);
+    } else if (number instanceof Double || number instanceof Float) {
+      double d = number.doubleValue();
+      if (Double.isNaN(d) || Double.isInfinite(d)) {
+        throw new IllegalArgumentException(d + " is not a valid number in JSON");
+      }
+      if (d != Math.rint(d)) {
+        // Float.toString too, so that 2.5f isn't written with the float's rounding error
+        decimal = new BigDecimal(number.toString());
+      } else if (Math.abs(d) < LONG_RANGE) {
+        // Also turns -0.0 into 0
+        out.value((long) d);
+        return;
+      } else {
+        decimal = new BigDecimal(d);
+      }
+    } else {
+      try {
+        decimal = new BigDecimal(number.toString());
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException(number + " is not a valid number in JSON", e);
+      }
+    }
+
+    decimal = decimal.stripTrailingZeros();
+    if (decimal.scale() <= 0 && decimal.compareTo(MIN_LONG) >= 0 && decimal.compareTo(MAX_LONG) <= 0) {
+      out.value(decimal.longValueExact());
+    } else {
+      out.jsonValue(decimal.toString());
+    }
+  }
+
+  private static void writeObject(JsonWriter out, Map<?, ?> map) throws IOException {
+    List<Map.Entry<String, Object>> members = new ArrayList<>(map.size());
+    for (Map.Entry<?, ?> entry : map.entrySet()) {
+      members.add(
+          new AbstractMap.SimpleImmutableEntry<>(String.valueOf(entry.getKey()), entry.getValue()));
+    }
+    members.sort(Map.Entry.comparingByKey());
+
+    out.beginObject();
+    for (Map.Entry<String, Object> member : members) {
+      out.name(member.getKey());
+      writeValue(out, member.getValue());
+    }
+    out.endObject();
+  }
+}
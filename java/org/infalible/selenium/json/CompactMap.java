@@ -0,0 +1,154 @@
+package org.infalible.selenium.json;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * An immutable map that keeps its keys and values in a single flat array, in the order they were
+ * added. Lookups are a linear scan, so this is only used for small JSON objects: bigger ones are
+ * read into a {@link LinkedHashMap} instead.
+ */
+class CompactMap extends AbstractMap<String, Object> {
+
+  static final int MAX_SIZE = 16;
+
+  private final Object[] keysAndValues;
+  private final int size;
+
+  private CompactMap(Object[] keysAndValues, int size) {
+    this.keysAndValues = keysAndValues;
+    this.size = size;
+  }
+
+  static Builder builder() {
+    return new Builder();
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return indexOf(keysAndValues, size, key) != -1;
+  }
+
+  @Override
+  public Object get(Object key) {
+    int index = indexOf(keysAndValues, size, key);
+    return index == -1 ? null : keysAndValues[index + 1];
+  }
+
+  @Override
+  public Set<Entry<String, Object>> entrySet() {
+    return new AbstractSet<Entry<String, Object>>() {
+      @Override
+      public Iterator<Entry<String, Object>> iterator() {
+        return new Iterator<Entry<String, Object>>() {
+          private int index = 0;
+
+          @Override
+          public boolean hasNext() {
+            return index < size;
+          }
+
+          @Override
+          public Entry<String, Object> next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            Entry<String, Object> entry = new SimpleImmutableEntry<>(
+                (String) keysAndValues[index * 2],
+                keysAndValues[index * 2 + 1]);
+            index++;
+            return entry;
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  private static int indexOf(Object[] keysAndValues, int size, Object key) {
+    for (int i = 0; i < size * 2; i += 2) {
+      if (Objects.equals(keysAndValues[i], key)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Collects entries until there are too many for a {@link CompactMap} to be sensible, and then
+   * switches over to a {@link LinkedHashMap}. As with any map, later values replace earlier ones.
+   */
+  static class Builder {
+    private Object[] keysAndValues = new Object[8];
+    private int size;
+    private Map<String, Object> overflow;
+
+    private Builder() {
+      // Use CompactMap.builder()
+    }
+
+    Builder put(String key, Object value) {
+      Objects.requireNonNull(key, "Key must be set");
+
+      if (overflow != null) {
+        overflow.put(key, value);
+        return this;
+      }
+
+      int index = indexOf(keysAndValues, size, key);
+      if (index != -1) {
+        keysAndValues[index + 1] = value;
+        return this;
+      }
+
+      if (size == MAX_SIZE) {
+        overflow = new LinkedHashMap<>();
+        for (int i = 0; i < size * 2; i += 2) {
+          overflow.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        overflow.put(key, value);
+        keysAndValues = null;
+        return this;
+      }
+
+      if (size * 2 == keysAndValues.length) {
+        Object[] grown = new Object[keysAndValues.length * 2];
+        System.arraycopy(keysAndValues, 0, grown, 0, keysAndValues.length);
+        keysAndValues = grown;
+      }
+      keysAndValues[size * 2] = key;
+      keysAndValues[size * 2 + 1] = value;
+      size++;
+      return this;
+    }
+
+    Map<String, Object> build() {
+      if (overflow != null) {
+        return Collections.unmodifiableMap(overflow);
+      }
+
+      Object[] trimmed = keysAndValues;
+      if (trimmed.length != size * 2) {
+        trimmed = new Object[size * 2];
+        System.arraycopy(keysAndValues, 0, trimmed, 0, size * 2);
+      }
+      return new CompactMap(trimmed, size);
+    }
+  }
+}
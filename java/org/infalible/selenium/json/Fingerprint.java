@@ -0,0 +1,35 @@
+package org.infalible.selenium.json;
+
+/**
+ * A 128-bit digest of a value's canonical JSON encoding, as produced by
+ * {@link CanonicalJson#fingerprint(Object)}. Values that encode the same way have the same
+ * fingerprint, no matter how their maps were ordered or their numbers were typed.
+ */
+public final class Fingerprint {
+  private final long high;
+  private final long low;
+
+  Fingerprint(long high, long low) {
+    this.high = high;
+    this.low = low;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof Fingerprint)) return false;
+    Fingerprint that = (Fingerprint) o;
+    return high == that.high && low == that.low;
+  }
+
+  @Override
+  public int hashCode() {
+    // The bits are already well mixed
+    return (int) low;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%016x%016x", high, low);
+  }
+}
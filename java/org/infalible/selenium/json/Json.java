@@ -11,60 +11,240 @@ import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.UncheckedIOException;
 import java.io.Writer;
 import java.lang.reflect.Type;
-import java.util.LinkedList;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 
 public class Json {
-  private final static Gson GSON = new GsonBuilder()
-      .registerTypeAdapterFactory(ListAdapter.FACTORY)
-      .registerTypeAdapterFactory(MapAdapter.FACTORY)
-      .setLenient()
-      .serializeNulls()
-      .create();
+
+  /**
+   * How JSON objects and arrays are represented once they have been read.
+   */
+  public enum Representation {
+    /**
+     * Objects are read into {@link TreeMap}s, so their keys are sorted.
+     */
+    SORTED,
+
+    /**
+     * Objects keep the order their keys were read in, and small ones are stored as flat arrays
+     * rather than a node per entry. Nested objects and arrays are read the same way, and
+     * commonly seen keys share a single String instance. The maps and lists are immutable.
+     */
+    COMPACT,
+  }
+
+  private final static Gson GSON = createGson(Representation.SORTED);
+  private final static Gson COMPACT_GSON = createGson(Representation.COMPACT);
   public static final Type MAP_TYPE = new TypeToken<Map<String, Object>>() {}.getType();
+  public static final Type LIST_TYPE = new TypeToken<List<Object>>() {}.getType();
   public static final Type OBJECT_TYPE = new TypeToken<Object>() {}.getType();
 
+  // Keys that turn up in almost every payload, so there's no need for each to have its own copy.
+  private static final Map<String, String> COMMON_KEYS = Stream.of(
+      "acceptInsecureCerts",
+      "alwaysMatch",
+      "browserName",
+      "browserVersion",
+      "capabilities",
+      "desiredCapabilities",
+      "firstMatch",
+      "goog:chromeOptions",
+      "moz:firefoxOptions",
+      "pageLoadStrategy",
+      "platform",
+      "platformName",
+      "proxy",
+      "sessionId",
+      "setWindowRect",
+      "status",
+      "timeouts",
+      "unhandledPromptBehavior",
+      "value",
+      "version")
+      .collect(Collectors.toMap(Function.identity(), Function.identity()));
+
+  // Timeouts, ports, window sizes and the like. Long.valueOf only caches up to 127.
+  private static final Long[] SMALL_LONGS = LongStream.range(0, 1024)
+      .boxed()
+      .toArray(Long[]::new);
+
   public final static Function<Object, String> TO_JSON = GSON::toJson;
 
-  public final static Function<String, Map<String, Object>> TO_MAP = string -> {
-    try {
-      return GSON.fromJson(string, MAP_TYPE);
-    } catch (JsonParseException e) {
-      throw new JsonException("Exception parsing: " + string, e);
-    }
-  };
+  public final static Function<String, Map<String, Object>> TO_MAP = toMap(Representation.SORTED);
+
+  public static Function<String, Map<String, Object>> toMap(Representation representation) {
+    Gson gson = gson(representation);
+    return string -> {
+      try {
+        return gson.fromJson(string, MAP_TYPE);
+      } catch (JsonParseException e) {
+        throw new JsonException("Exception parsing: " + string, e);
+      }
+    };
+  }
 
-  private static Object readValue(JsonReader in, Gson gson) throws IOException {
+  private static Gson createGson(Representation representation) {
+    return new GsonBuilder()
+        .registerTypeAdapterFactory(ListAdapter.factory(representation))
+        .registerTypeAdapterFactory(MapAdapter.factory(representation))
+        .setLenient()
+        .serializeNulls()
+        .create();
+  }
+
+  private static Gson gson(Representation representation) {
+    Objects.requireNonNull(representation, "Representation must be set");
+    return representation == Representation.COMPACT ? COMPACT_GSON : GSON;
+  }
+
+  static Object readValue(JsonReader in, Gson gson, Representation representation)
+      throws IOException {
     switch (in.peek()) {
       case BEGIN_ARRAY:
+        if (representation == Representation.COMPACT) {
+          return readCompactList(in);
+        }
+        return gson.fromJson(in, Object.class);
+
       case BEGIN_OBJECT:
+        if (representation == Representation.COMPACT) {
+          return readCompactMap(in);
+        }
+        return gson.fromJson(in, Object.class);
+
       case BOOLEAN:
+        return in.nextBoolean();
+
       case NULL:
+        in.nextNull();
+        return null;
+
       case STRING:
-        return gson.fromJson(in, Object.class);
+        return in.nextString();
 
       case NUMBER:
-        String number = in.nextString();
-        if (number.indexOf('.') != -1) {
-          return Double.parseDouble(number);
-        }
-        return Long.parseLong(number);
+        return parseNumber(in.nextString());
 
       default:
         throw new JsonParseException("Unexpected type: " + in.peek());
     }
   }
 
+  // Compact values are read here rather than through Gson, which would look up the adapter to
+  // use for every single value.
+  private static Map<String, Object> readCompactMap(JsonReader in) throws IOException {
+    CompactMap.Builder builder = CompactMap.builder();
+    in.beginObject();
+
+    while (in.hasNext()) {
+      String key = in.nextName();
+      builder.put(COMMON_KEYS.getOrDefault(key, key), readValue(in, COMPACT_GSON, Representation.COMPACT));
+    }
+
+    in.endObject();
+    return builder.build();
+  }
+
+  private static List<Object> readCompactList(JsonReader in) throws IOException {
+    List<Object> list = new ArrayList<>();
+    in.beginArray();
+
+    while (in.hasNext()) {
+      list.add(readValue(in, COMPACT_GSON, Representation.COMPACT));
+    }
+
+    in.endArray();
+    return Collections.unmodifiableList(list);
+  }
+
+  /**
+   * Integers are read as Longs, or as BigIntegers if they are too big for a long, and everything
+   * else as Doubles.
+   */
+  static Number parseNumber(String number) {
+    int length = number.length();
+    int start = number.startsWith("-") ? 1 : 0;
+
+    // Any 18 digits fit in a long, so only longer numbers need checking for overflow
+    if (length == start || length - start > 18) {
+      return parseSlowly(number);
+    }
+
+    long value = 0;
+    for (int i = start; i < length; i++) {
+      char c = number.charAt(i);
+      if (c < '0' || c > '9') {
+        return parseSlowly(number);
+      }
+      value = value * 10 + (c - '0');
+    }
+
+    if (value < SMALL_LONGS.length) {
+      return start == 0 ? SMALL_LONGS[(int) value] : Long.valueOf(-value);
+    }
+    return start == 0 ? value : -value;
+  }
+
+  private static Number parseSlowly(String number) {
+    for (int i = 0; i < number.length(); i++) {
+      switch (number.charAt(i)) {
+        case '.':
+        case 'e':
+        case 'E':
+          return Double.parseDouble(number);
+      }
+    }
+
+    try {
+      return Long.parseLong(number);
+    } catch (NumberFormatException e) {
+      // Too big for a long. A double would quietly lose digits.
+      return new BigInteger(number);
+    }
+  }
+
   public static JsonInput newInput(Reader from) throws UncheckedIOException {
-    return new JsonInput(GSON, GSON.newJsonReader(from));
+    return newInput(from, Representation.SORTED);
+  }
+
+  public static JsonInput newInput(Reader from, Representation representation)
+      throws UncheckedIOException {
+    Gson gson = gson(representation);
+    return new JsonInput(gson, gson.newJsonReader(from), representation);
+  }
+
+  /**
+   * Reads UTF-8 encoded JSON straight from {@code from}, skipping the usual {@link Reader}.
+   */
+  public static JsonInput newInput(InputStream from, Representation representation)
+      throws UncheckedIOException {
+    return newInput(new Utf8Reader(from), representation);
+  }
+
+  /**
+   * Reads UTF-8 encoded JSON from between the buffer's position and its limit. The buffer's
+   * position is not changed.
+   */
+  public static JsonInput newInput(ByteBuffer from, Representation representation)
+      throws UncheckedIOException {
+    return newInput(new Utf8Reader(from), representation);
   }
 
   public static JsonOutput newOutput(Writer to) throws UncheckedIOException {
@@ -75,23 +255,36 @@ public class Json {
     }
   }
 
+  /**
+   * Writes UTF-8 encoded JSON straight to {@code to}. Closing the output closes {@code to}.
+   */
+  public static JsonOutput newOutput(OutputStream to) throws UncheckedIOException {
+    return newOutput(new Utf8Writer(to));
+  }
+
   private static class MapAdapter extends TypeAdapter<Map<?, ?>> {
 
-    private final static TypeAdapterFactory FACTORY = new TypeAdapterFactory() {
-      @SuppressWarnings("unchecked")
-      @Override
-      public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
-        if (type.getRawType() == Map.class) {
-          return (TypeAdapter<T>) new MapAdapter(gson);
+    private static TypeAdapterFactory factory(Representation representation) {
+      return new TypeAdapterFactory() {
+        @SuppressWarnings("unchecked")
+        @Override
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+          if (type.getRawType() == Map.class) {
+            return (TypeAdapter<T>) new MapAdapter(gson, representation);
+          }
+          return null;
         }
-        return null;
-      }
-    };
+      };
+    }
 
     private final Gson gson;
+    private final Representation representation;
+    private final ValueWriter values;
 
-    private MapAdapter(Gson gson) {
+    private MapAdapter(Gson gson, Representation representation) {
       this.gson = Objects.requireNonNull(gson);
+      this.representation = Objects.requireNonNull(representation);
+      this.values = new ValueWriter(gson);
     }
 
     @Override
@@ -101,12 +294,16 @@ public class Json {
         return null;
       }
 
+      if (representation == Representation.COMPACT) {
+        return readCompactMap(in);
+      }
+
       Map<String, Object> map = new TreeMap<>();
       in.beginObject();
 
       while (in.hasNext()) {
         String key = in.nextName();
-        Object value = readValue(in, gson);
+        Object value = readValue(in, gson, representation);
 
         map.put(key, value);
       }
@@ -117,37 +314,33 @@ public class Json {
 
     @Override
     public void write(JsonWriter out, Map<?, ?> value) throws IOException {
-      // It's fine to use GSON's own default writer for this.
-      out.beginObject();
-      for (Map.Entry<?, ?> entry : value.entrySet()) {
-        out.name(String.valueOf(entry.getKey()));
-        @SuppressWarnings("unchecked")
-        TypeAdapter<Object>
-            adapter =
-            (TypeAdapter<Object>) gson.getAdapter(entry.getValue().getClass());
-        adapter.write(out, entry.getValue());
-      }
-      out.endObject();
+      values.write(out, value);
     }
   }
 
   private static class ListAdapter extends TypeAdapter<List<?>> {
 
-    private final static TypeAdapterFactory FACTORY = new TypeAdapterFactory() {
-      @SuppressWarnings("unchecked")
-      @Override
-      public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
-        if (type.getRawType() == List.class) {
-          return (TypeAdapter<T>) new ListAdapter(gson);
+    private static TypeAdapterFactory factory(Representation representation) {
+      return new TypeAdapterFactory() {
+        @SuppressWarnings("unchecked")
+        @Override
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+          if (type.getRawType() == List.class) {
+            return (TypeAdapter<T>) new ListAdapter(gson, representation);
+          }
+          return null;
         }
-        return null;
-      }
-    };
+      };
+    }
 
     private final Gson gson;
+    private final Representation representation;
+    private final ValueWriter values;
 
-    private ListAdapter(Gson gson) {
+    private ListAdapter(Gson gson, Representation representation) {
       this.gson = Objects.requireNonNull(gson);
+      this.representation = Objects.requireNonNull(representation);
+      this.values = new ValueWriter(gson);
     }
 
     @Override
@@ -157,11 +350,15 @@ public class Json {
         return null;
       }
 
-      List<Object> list = new LinkedList<>();
+      if (representation == Representation.COMPACT) {
+        return readCompactList(in);
+      }
+
+      List<Object> list = new ArrayList<>();
       in.beginArray();
 
       while (in.hasNext()) {
-        list.add(readValue(in, gson));
+        list.add(readValue(in, gson, representation));
       }
 
       in.endArray();
@@ -170,13 +367,64 @@ public class Json {
 
     @Override
     public void write(JsonWriter out, List<?> value) throws IOException {
-      out.beginArray();
-      for (Object entry : value) {
+      values.write(out, value);
+    }
+  }
+
+  /**
+   * Writes the values that make up capabilities directly, only asking Gson how to write anything
+   * else. Gson's answers are cached by class, since looking them up again for every value is slow.
+   */
+  private static class ValueWriter {
+    private final Gson gson;
+    private final Map<Class<?>, TypeAdapter<Object>> adapters = new ConcurrentHashMap<>();
+
+    private ValueWriter(Gson gson) {
+      this.gson = Objects.requireNonNull(gson);
+    }
+
+    void write(JsonWriter out, Object value) throws IOException {
+      if (value == null) {
+        out.nullValue();
+      } else if (value instanceof String) {
+        out.value((String) value);
+      } else if (value instanceof Boolean) {
+        out.value((boolean) (Boolean) value);
+      } else if (value instanceof Long || value instanceof Integer) {
+        out.value(((Number) value).longValue());
+      } else if (value instanceof Double || value instanceof Float) {
+        double d = ((Number) value).doubleValue();
+        if (Double.isNaN(d) || Double.isInfinite(d)) {
+          throw new IllegalArgumentException(d + " is not a valid number in JSON");
+        }
+        out.value((Number) value);
+      } else if (value instanceof Map) {
+        out.beginObject();
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+          out.name(String.valueOf(entry.getKey()));
+          write(out, entry.getValue());
+        }
+        out.endObject();
+      } else if (value instanceof List) {
+        out.beginArray();
+        for (Object item : (List<?>) value) {
+          write(out, item);
+        }
+        out.endArray();
+      } else {
+        adapterFor(value.getClass()).write(out, value);
+      }
+    }
+
+    private TypeAdapter<Object> adapterFor(Class<?> type) {
+      TypeAdapter<Object> adapter = adapters.get(type);
+      if (adapter == null) {
         @SuppressWarnings("unchecked")
-        TypeAdapter<Object> adapter = (TypeAdapter<Object>) gson.getAdapter(entry.getClass());
-        adapter.write(out, entry);
+        TypeAdapter<Object> fromGson = (TypeAdapter<Object>) gson.getAdapter(type);
+        adapter = fromGson;
+        adapters.put(type, adapter);
       }
-      out.endArray();
+      return adapter;
     }
   }
 }
@@ -1,19 +1,29 @@
 package org.infalible.selenium.json;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
 import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
 
 public class JsonInput implements Closeable {
   private final Gson gson;
   private final JsonReader jsonReader;
+  private final Json.Representation representation;
 
-  JsonInput(Gson gson, JsonReader jsonReader) {
+  JsonInput(Gson gson, JsonReader jsonReader, Json.Representation representation) {
     this.gson = gson;
     this.jsonReader = jsonReader;
+    this.representation = representation;
   }
 
   @Override
@@ -45,9 +55,103 @@ public class JsonInput implements Closeable {
     return jsonReader.nextName();
   }
 
+  public void skipValue() throws IOException {
+    jsonReader.skipValue();
+  }
+
   public <T> T read(Type type) {
+    // Gson always reads plain Objects with its own adapter, which knows nothing of our representation
+    if (representation == Json.Representation.COMPACT && Object.class.equals(type)) {
+      try {
+        @SuppressWarnings("unchecked") T o = (T) Json.readValue(jsonReader, gson, representation);
+        return o;
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
     T o = gson.fromJson(jsonReader, type);
     return o;
   }
 
+  /**
+   * Copies the next value to {@code out} one token at a time.
+   *
+   * @param expected The token the value must start with, or null if it may be anything. A null
+   *     value is always allowed.
+   */
+  void copyTo(JsonWriter out, JsonToken expected, Predicate<List<String>> include)
+      throws IOException {
+    JsonToken first = jsonReader.peek();
+    if (expected != null && first != expected && first != JsonToken.NULL) {
+      throw new JsonParseException("Expected " + expected + " but was " + first);
+    }
+
+    // The names of the members we're in, with one entry per open object
+    List<String> path = new ArrayList<>();
+    List<String> readOnlyPath = Collections.unmodifiableList(path);
+    int depth = 0;
+
+    do {
+      JsonToken token = jsonReader.peek();
+      switch (token) {
+        case BEGIN_OBJECT:
+          jsonReader.beginObject();
+          out.beginObject();
+          path.add(null);
+          depth++;
+          break;
+
+        case END_OBJECT:
+          jsonReader.endObject();
+          out.endObject();
+          path.remove(path.size() - 1);
+          depth--;
+          break;
+
+        case BEGIN_ARRAY:
+          jsonReader.beginArray();
+          out.beginArray();
+          depth++;
+          break;
+
+        case END_ARRAY:
+          jsonReader.endArray();
+          out.endArray();
+          depth--;
+          break;
+
+        case NAME:
+          String name = jsonReader.nextName();
+          path.set(path.size() - 1, name);
+          if (include.test(readOnlyPath)) {
+            out.name(name);
+          } else {
+            jsonReader.skipValue();
+          }
+          break;
+
+        case STRING:
+          out.value(jsonReader.nextString());
+          break;
+
+        case NUMBER:
+          // Keep the number exactly as it was written
+          out.jsonValue(jsonReader.nextString());
+          break;
+
+        case BOOLEAN:
+          out.value(jsonReader.nextBoolean());
+          break;
+
+        case NULL:
+          jsonReader.nextNull();
+          out.nullValue();
+          break;
+
+        default:
+          throw new JsonParseException("Unexpected token: " + token);
+      }
+    } while (depth > 0);
+  }
 }
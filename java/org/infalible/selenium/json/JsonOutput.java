@@ -1,12 +1,17 @@
 package org.infalible.selenium.json;
 
 import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.lang.reflect.Type;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
 
 public class JsonOutput implements Closeable {
   private final Gson gson;
@@ -22,9 +27,48 @@ public class JsonOutput implements Closeable {
     jsonWriter.close();
   }
 
+  /**
+   * Copies the next value of {@code input}. Maps, lists and plain objects are copied a token at a
+   * time, so no more than a single string or number of the value is ever held in memory. Values of
+   * any other type are read in full and written back out.
+   */
   public void write(JsonInput input, Type type) throws UncheckedIOException {
-    Object read = input.read(type);
-    gson.toJson(read, type, jsonWriter);
+    Class<?> raw = TypeToken.get(type).getRawType();
+    if (raw != Map.class && raw != List.class && raw != Object.class) {
+      Object read = input.read(type);
+      gson.toJson(read, type, jsonWriter);
+      return;
+    }
+
+    write(input, type, path -> true);
+  }
+
+  /**
+   * Copies the next value of {@code input} a token at a time, leaving out every object member that
+   * {@code include} rejects. It's given the path to the member: the names of the members that
+   * enclose it, outermost first, followed by its own name. Array indices aren't part of the path.
+   *
+   * @param type One of {@link Json#MAP_TYPE}, {@link Json#LIST_TYPE} or {@link Json#OBJECT_TYPE}.
+   */
+  public void write(JsonInput input, Type type, Predicate<List<String>> include)
+      throws UncheckedIOException {
+    Class<?> raw = TypeToken.get(type).getRawType();
+    JsonToken expected;
+    if (raw == Map.class) {
+      expected = JsonToken.BEGIN_OBJECT;
+    } else if (raw == List.class) {
+      expected = JsonToken.BEGIN_ARRAY;
+    } else if (raw == Object.class) {
+      expected = null;
+    } else {
+      throw new IllegalArgumentException("Only maps, lists and objects can be copied: " + type);
+    }
+
+    try {
+      input.copyTo(jsonWriter, expected, include);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
   }
 
   public JsonOutput write(Object input, Type type) throws UncheckedIOException {
@@ -0,0 +1,182 @@
+package org.infalible.selenium.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes UTF-8 bytes as they are read, without the locking and intermediate buffers of an
+ * {@link java.io.InputStreamReader}. Almost everything in a payload is ASCII, which is copied
+ * across a byte at a time. Malformed input is replaced with U+FFFD, as the JDK's decoder does.
+ */
+class Utf8Reader extends Reader {
+
+  private static final char REPLACEMENT = '\uFFFD';
+
+  private final InputStream in;
+  private final ByteBuffer bytes;
+  private boolean eof;
+  // The second half of a surrogate pair that didn't fit in the caller's buffer.
+  private char pendingLow;
+
+  Utf8Reader(InputStream in) {
+    this.in = in;
+    this.bytes = ByteBuffer.allocate(8192);
+    bytes.flip();
+  }
+
+  /**
+   * Reads the bytes between the buffer's position and its limit. The buffer itself is left as is.
+   */
+  Utf8Reader(ByteBuffer bytes) {
+    this.in = null;
+    this.bytes = bytes.duplicate();
+    this.eof = true;
+  }
+
+  @Override
+  public int read(char[] chars, int offset, int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+
+    int count = offset;
+    int end = offset + length;
+
+    if (pendingLow != 0) {
+      chars[count++] = pendingLow;
+      pendingLow = 0;
+    }
+
+    while (count < end) {
+      if (!bytes.hasRemaining()) {
+        // Hand back what we have rather than block for more
+        if (count > offset || !fill()) {
+          break;
+        }
+      }
+
+      int lead = bytes.get(bytes.position());
+      if (lead >= 0) {
+        bytes.get();
+        chars[count++] = (char) lead;
+        continue;
+      }
+
+      int codePoint = decode(lead);
+      if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+        chars[count++] = (char) codePoint;
+      } else {
+        chars[count++] = Character.highSurrogate(codePoint);
+        if (count < end) {
+          chars[count++] = Character.lowSurrogate(codePoint);
+        } else {
+          pendingLow = Character.lowSurrogate(codePoint);
+        }
+      }
+    }
+
+    return count == offset ? -1 : count - offset;
+  }
+
+  /**
+   * Consumes the multi-byte sequence starting with {@code lead}. If the sequence is malformed, only
+   * the longest prefix of it that could have started a valid sequence is consumed, and replaced
+   * with a single U+FFFD. This is what the JDK's decoder does too, so {@code E2 82 41} decodes to
+   * U+FFFD followed by 'A'.
+   */
+  private int decode(int lead) throws IOException {
+    lead &= 0xFF;
+    int length;
+    if (lead >= 0xC2 && lead <= 0xDF) {
+      length = 2;
+    } else if ((lead & 0xF0) == 0xE0) {
+      length = 3;
+    } else if (lead >= 0xF0 && lead <= 0xF4) {
+      length = 4;
+    } else {
+      // A continuation byte, or a lead byte that could only start an overlong or too large value
+      bytes.get();
+      return REPLACEMENT;
+    }
+
+    while (bytes.remaining() < length && fill()) {
+      // Keep going until the whole sequence is buffered
+    }
+
+    int position = bytes.position();
+    int available = Math.min(length, bytes.remaining());
+    int codePoint = lead & (0x7F >> length);
+    for (int i = 1; i < available; i++) {
+      int next = bytes.get(position + i) & 0xFF;
+      if (!isContinuation(lead, i, next)) {
+        bytes.position(position + i);
+        return REPLACEMENT;
+      }
+      codePoint = (codePoint << 6) | (next & 0x3F);
+    }
+
+    bytes.position(position + available);
+    if (available < length) {
+      // The input ended part way through the sequence
+      return REPLACEMENT;
+    }
+    if (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE) {
+      return REPLACEMENT;
+    }
+    return codePoint;
+  }
+
+  /**
+   * @return Whether {@code next} may be the {@code index}th byte of a sequence starting with {@code
+   *     lead}. The second byte is restricted further to rule out overlong and too large values.
+   */
+  private static boolean isContinuation(int lead, int index, int next) {
+    if (index == 1) {
+      switch (lead) {
+        case 0xE0:
+          return next >= 0xA0 && next <= 0xBF;
+
+        case 0xF0:
+          return next >= 0x90 && next <= 0xBF;
+
+        case 0xF4:
+          return next >= 0x80 && next <= 0x8F;
+
+        default:
+          break;
+      }
+    }
+    return (next & 0xC0) == 0x80;
+  }
+
+  /**
+   * @return Whether any more bytes were read.
+   */
+  private boolean fill() throws IOException {
+    if (eof) {
+      return false;
+    }
+
+    bytes.compact();
+    try {
+      int read = in.read(bytes.array(), bytes.position(), bytes.remaining());
+      if (read < 0) {
+        eof = true;
+        return false;
+      }
+      bytes.position(bytes.position() + read);
+      return read > 0;
+    } finally {
+      bytes.flip();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (in != null) {
+      in.close();
+    }
+  }
+}
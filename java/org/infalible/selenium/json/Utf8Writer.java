@@ -0,0 +1,123 @@
+package org.infalible.selenium.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * Encodes characters as UTF-8 as they are written, without the locking and intermediate buffers
+ * of an {@link java.io.OutputStreamWriter}. Unpaired surrogates are written as '?', as the JDK's
+ * encoder does.
+ */
+class Utf8Writer extends Writer {
+
+  private final OutputStream out;
+  private final byte[] buffer = new byte[8192];
+  private int count;
+  // The first half of a surrogate pair whose second half hasn't been written yet.
+  private char pendingHigh;
+  private boolean closed;
+
+  Utf8Writer(OutputStream out) {
+    this.out = out;
+  }
+
+  @Override
+  public void write(int c) throws IOException {
+    encode((char) c);
+  }
+
+  @Override
+  public void write(char[] chars, int offset, int length) throws IOException {
+    for (int i = offset; i < offset + length; i++) {
+      encode(chars[i]);
+    }
+  }
+
+  @Override
+  public void write(String str, int offset, int length) throws IOException {
+    // Writer would copy the string into a char array first
+    for (int i = offset; i < offset + length; i++) {
+      encode(str.charAt(i));
+    }
+  }
+
+  private void encode(char c) throws IOException {
+    if (c < 0x80 && pendingHigh == 0) {
+      if (count == buffer.length) {
+        flushBuffer();
+      }
+      buffer[count++] = (byte) c;
+      return;
+    }
+
+    if (buffer.length - count < 4) {
+      flushBuffer();
+    }
+
+    if (pendingHigh != 0) {
+      char high = pendingHigh;
+      pendingHigh = 0;
+      if (Character.isLowSurrogate(c)) {
+        int codePoint = Character.toCodePoint(high, c);
+        buffer[count++] = (byte) (0xF0 | (codePoint >> 18));
+        buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        buffer[count++] = (byte) (0x80 | (codePoint & 0x3F));
+        return;
+      }
+      buffer[count++] = '?';
+      encode(c);
+      return;
+    }
+
+    if (c < 0x80) {
+      buffer[count++] = (byte) c;
+    } else if (c < 0x800) {
+      buffer[count++] = (byte) (0xC0 | (c >> 6));
+      buffer[count++] = (byte) (0x80 | (c & 0x3F));
+    } else if (Character.isHighSurrogate(c)) {
+      pendingHigh = c;
+    } else if (Character.isLowSurrogate(c)) {
+      buffer[count++] = '?';
+    } else {
+      buffer[count++] = (byte) (0xE0 | (c >> 12));
+      buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+      buffer[count++] = (byte) (0x80 | (c & 0x3F));
+    }
+  }
+
+  private void flushBuffer() throws IOException {
+    if (count > 0) {
+      out.write(buffer, 0, count);
+      count = 0;
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    flushBuffer();
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+
+    try {
+      if (pendingHigh != 0) {
+        pendingHigh = 0;
+        if (count == buffer.length) {
+          flushBuffer();
+        }
+        buffer[count++] = '?';
+      }
+      flushBuffer();
+    } finally {
+      out.close();
+    }
+  }
+}
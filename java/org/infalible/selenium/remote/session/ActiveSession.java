@@ -1,4 +1,12 @@
 package org.infalible.selenium.remote.session;
 
 public interface ActiveSession {
+
+  /**
+   * Called when a session was started, but is not going to be used. This happens when several
+   * providers are started speculatively and another one finished first.
+   */
+  default void close() {
+    // Nothing to do by default
+  }
 }
@@ -0,0 +1,110 @@
+package org.infalible.selenium.remote.session;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Uses the keys, key prefixes and browser names that each {@link DeclarativeAdapter} declares to
+ * work out which adapters a capability belongs to, without needing to ask each of them in turn.
+ * Any other adapter has to be applied to the capabilities. Adapters are numbered in the order they
+ * were given.
+ */
+class AdapterIndex {
+
+  private final ImmutableList<CapabilitiesAdapter> adapters;
+  private final BitSet undeclared = new BitSet();
+  private final ImmutableMap<String, BitSet> keys;
+  private final ImmutableMap<String, BitSet> browserNames;
+  private final PrefixTrie prefixes = new PrefixTrie();
+
+  AdapterIndex(Collection<CapabilitiesAdapter> adapters) {
+    this.adapters = ImmutableList.copyOf(adapters);
+
+    Map<String, BitSet> keys = new HashMap<>();
+    Map<String, BitSet> browserNames = new HashMap<>();
+    for (int i = 0; i < this.adapters.size(); i++) {
+      CapabilitiesAdapter adapter = this.adapters.get(i);
+      if (!(adapter instanceof DeclarativeAdapter)) {
+        undeclared.set(i);
+        continue;
+      }
+
+      DeclarativeAdapter declarative = (DeclarativeAdapter) adapter;
+      for (String key : declarative.getKeys()) {
+        keys.computeIfAbsent(key, k -> new BitSet()).set(i);
+      }
+      for (String browserName : declarative.getBrowserNames()) {
+        browserNames.computeIfAbsent(browserName, k -> new BitSet()).set(i);
+      }
+      for (String prefix : declarative.getKeyPrefixes()) {
+        prefixes.add(prefix, i);
+      }
+    }
+    this.keys = ImmutableMap.copyOf(keys);
+    this.browserNames = ImmutableMap.copyOf(browserNames);
+  }
+
+  int size() {
+    return adapters.size();
+  }
+
+  CapabilitiesAdapter get(int index) {
+    return adapters.get(index);
+  }
+
+  /**
+   * @return The adapters that aren't declarative, and so must be applied to the capabilities.
+   */
+  BitSet undeclared() {
+    return (BitSet) undeclared.clone();
+  }
+
+  /**
+   * Add every adapter that the capability with the given {@code key} and {@code value} belongs to to
+   * {@code adapters}.
+   */
+  void classify(String key, Object value, BitSet adapters) {
+    BitSet exact = keys.get(key);
+    if (exact != null) {
+      adapters.or(exact);
+    }
+
+    if ("browserName".equals(key) && value instanceof String) {
+      BitSet browser = browserNames.get(value);
+      if (browser != null) {
+        adapters.or(browser);
+      }
+    }
+
+    prefixes.collect(key, adapters);
+  }
+
+  private static class PrefixTrie {
+    private final Map<Character, PrefixTrie> children = new HashMap<>();
+    private final BitSet adapters = new BitSet();
+
+    void add(String prefix, int adapter) {
+      PrefixTrie node = this;
+      for (int i = 0; i < prefix.length(); i++) {
+        node = node.children.computeIfAbsent(prefix.charAt(i), c -> new PrefixTrie());
+      }
+      node.adapters.set(adapter);
+    }
+
+    void collect(String key, BitSet into) {
+      PrefixTrie node = this;
+      for (int i = 0; i < key.length(); i++) {
+        node = node.children.get(key.charAt(i));
+        if (node == null) {
+          return;
+        }
+        into.or(node.adapters);
+      }
+    }
+  }
+}
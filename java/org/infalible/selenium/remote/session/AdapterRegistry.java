@@ -0,0 +1,126 @@
+package org.infalible.selenium.remote.session;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableSet;
+
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.Objects;
+import java.util.ServiceLoader;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Holds the {@link CapabilitiesAdapter}s used by {@link JwpToW3CCapabilitiesAdapter}: any found by
+ * the {@link ServiceLoader}, followed by the built-in ones. Scanning the classpath is slow, so this
+ * is only done the first time adapters are needed for each class loader. Because the adapters are
+ * shared, they must be safe to use from more than one thread at a time.
+ *
+ * <p>If adapters are added to a class loader after it has been used, call {@link #refresh()} or
+ * {@link #refresh(ClassLoader)} so that they are found.
+ *
+ * <p>Nothing here keeps a class loader from being collected. The adapters found for a class loader
+ * are likely to have been loaded by it, so they are only weakly held too, apart from those of the
+ * class loader used last, which are kept until memory runs low.
+ */
+public final class AdapterRegistry {
+
+  private static final LoadingCache<ClassLoader, AdapterIndex> INDICES = CacheBuilder.newBuilder()
+      .weakKeys()
+      .weakValues()
+      .build(CacheLoader.from(AdapterRegistry::discover));
+
+  private static final List<Runnable> REFRESH_LISTENERS = new CopyOnWriteArrayList<>();
+
+  // Almost every request comes from the same class loader, so remember the last one used.
+  private static volatile Loaded lastLoaded;
+
+  private AdapterRegistry() {
+    // Static methods only
+  }
+
+  /**
+   * Forget the adapters found for every class loader.
+   */
+  public static synchronized void refresh() {
+    INDICES.invalidateAll();
+    lastLoaded = null;
+    REFRESH_LISTENERS.forEach(Runnable::run);
+  }
+
+  /**
+   * Forget the adapters found for {@code classLoader}.
+   */
+  public static synchronized void refresh(ClassLoader classLoader) {
+    Objects.requireNonNull(classLoader, "Class loader must be set");
+    INDICES.invalidate(classLoader);
+    lastLoaded = null;
+    REFRESH_LISTENERS.forEach(Runnable::run);
+  }
+
+  /**
+   * Run {@code listener} whenever the adapters are refreshed, so that anything worked out using the
+   * old ones can be thrown away.
+   */
+  static void addRefreshListener(Runnable listener) {
+    REFRESH_LISTENERS.add(Objects.requireNonNull(listener, "Listener must be set"));
+  }
+
+  /**
+   * @return The adapters visible to the current thread's context class loader, which is where the
+   *     {@link ServiceLoader} would look for them.
+   */
+  static AdapterIndex getAdapters() {
+    ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+    if (classLoader == null) {
+      classLoader = ClassLoader.getSystemClassLoader();
+    }
+
+    Loaded loaded = lastLoaded;
+    if (loaded != null && loaded.classLoader.get() == classLoader) {
+      AdapterIndex adapters = loaded.adapters.get();
+      if (adapters != null) {
+        return adapters;
+      }
+    }
+
+    return load(classLoader);
+  }
+
+  // Synchronised so that a refresh can't be undone by a lookup that started before it.
+  private static synchronized AdapterIndex load(ClassLoader classLoader) {
+    AdapterIndex adapters = INDICES.getUnchecked(classLoader);
+    lastLoaded = new Loaded(classLoader, adapters);
+    return adapters;
+  }
+
+  private static AdapterIndex discover(ClassLoader classLoader) {
+    ImmutableSet.Builder<CapabilitiesAdapter> builder = ImmutableSet.builder();
+
+    ServiceLoader.load(CapabilitiesAdapter.class, classLoader).forEach(builder::add);
+
+    builder
+        .add(new ChromeAdapter())
+        .add(new EdgeAdapter())
+        .add(new FirefoxAdapter())
+        .add(new IEAdapter())
+        .add(new OperaAdapter())
+        .add(new SafariAdapter());
+
+    return new AdapterIndex(builder.build());
+  }
+
+  private static class Loaded {
+    private final WeakReference<ClassLoader> classLoader;
+    // Soft, so that the adapters survive between requests without keeping their class loader
+    // alive for good. They also keep the weakly held entry in INDICES alive.
+    private final SoftReference<AdapterIndex> adapters;
+
+    Loaded(ClassLoader classLoader, AdapterIndex adapters) {
+      this.classLoader = new WeakReference<>(classLoader);
+      this.adapters = new SoftReference<>(adapters);
+    }
+  }
+}
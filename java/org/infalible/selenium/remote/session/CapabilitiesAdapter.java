@@ -3,6 +3,16 @@ package org.infalible.selenium.remote.session;
 import java.util.Map;
 import java.util.function.Function;
 
+/**
+ * Picks out the capabilities that belong to a particular browser. Adapters are applied to the
+ * entire capabilities map, and return null if none of it belongs to them. Adapters that only pick
+ * out capabilities by name should extend {@link DeclarativeAdapter} instead, which allows {@link
+ * JwpToW3CCapabilitiesAdapter} to sort every capability into the right adapter in a single pass.
+ *
+ * <p>Adapters are run one after another on the thread handling the new session request, and the
+ * maps they see are small, so they should do their work sequentially rather than with a parallel
+ * stream.
+ */
 @FunctionalInterface
 public interface CapabilitiesAdapter extends Function<Map<String, Object>, Map<String, Object>> {
 }
@@ -0,0 +1,136 @@
+package org.infalible.selenium.remote.session;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import static org.infalible.selenium.remote.session.Validators.IS_BOOLEAN;
+import static org.infalible.selenium.remote.session.Validators.IS_PAGE_LOADING_STRATEGY;
+import static org.infalible.selenium.remote.session.Validators.IS_PROXY;
+import static org.infalible.selenium.remote.session.Validators.IS_STRING;
+import static org.infalible.selenium.remote.session.Validators.IS_TIMEOUT;
+import static org.infalible.selenium.remote.session.Validators.IS_UNHANDLED_PROMPT_BEHAVIOR;
+
+/**
+ * Checks that a set of W3C capabilities only uses the capability names the spec allows, and that
+ * the standard capabilities have sensible values. Each capability costs a single hash lookup, or a
+ * scan of its name if it turns out to be an extension capability.
+ */
+class CapabilitiesValidator {
+
+  static final CapabilitiesValidator W3C = new CapabilitiesValidator(
+      ImmutableMap.<String, Predicate<Object>>builder()
+          .put("acceptInsecureCerts", IS_BOOLEAN)
+          .put("browserName", IS_STRING)
+          .put("browserVersion", IS_STRING)
+          .put("platformName", IS_STRING)
+          .put("pageLoadStrategy", IS_PAGE_LOADING_STRATEGY)
+          .put("proxy", IS_PROXY)
+          .put("setWindowRect", IS_BOOLEAN)
+          .put("timeouts", IS_TIMEOUT)
+          .put("unhandledPromptBehavior", IS_UNHANDLED_PROMPT_BEHAVIOR)
+          .build());
+
+  private final ImmutableMap<String, Predicate<Object>> typeChecks;
+
+  private CapabilitiesValidator(ImmutableMap<String, Predicate<Object>> typeChecks) {
+    this.typeChecks = typeChecks;
+  }
+
+  /**
+   * @return Everything that is wrong with {@code capabilities}, which is empty if they're fine.
+   */
+  List<Problem> validate(Map<String, Object> capabilities) {
+    ImmutableList.Builder<Problem> problems = null;
+
+    for (Map.Entry<String, Object> entry : capabilities.entrySet()) {
+      String key = entry.getKey();
+      Predicate<Object> typeCheck = typeChecks.get(key);
+
+      Problem problem = null;
+      if (typeCheck == null) {
+        if (!isExtensionCapability(key)) {
+          problem = new Problem(Problem.Kind.ILLEGAL_KEY, key, entry.getValue());
+        }
+      } else if (!typeCheck.test(entry.getValue())) {
+        problem = new Problem(Problem.Kind.UNEXPECTED_VALUE, key, entry.getValue());
+      }
+
+      if (problem != null) {
+        if (problems == null) {
+          problems = ImmutableList.builder();
+        }
+        problems.add(problem);
+      }
+    }
+
+    return problems == null ? ImmutableList.of() : problems.build();
+  }
+
+  /**
+   * Extension capabilities are of the form {@code vendor:name}, where the vendor prefix is made up
+   * of letters, digits, underscores and dashes.
+   */
+  private static boolean isExtensionCapability(String key) {
+    for (int i = 0; i < key.length(); i++) {
+      char c = key.charAt(i);
+      if (c == ':') {
+        return i > 0;
+      }
+      if (!(c >= 'a' && c <= 'z') &&
+          !(c >= 'A' && c <= 'Z') &&
+          !(c >= '0' && c <= '9') &&
+          c != '_' &&
+          c != '-') {
+        return false;
+      }
+    }
+    return false;
+  }
+
+  static class Problem {
+    enum Kind {
+      ILLEGAL_KEY,
+      UNEXPECTED_VALUE
+    }
+
+    private final Kind kind;
+    private final String key;
+    private final Object value;
+
+    private Problem(Kind kind, String key, Object value) {
+      this.kind = kind;
+      this.key = key;
+      this.value = value;
+    }
+
+    Kind getKind() {
+      return kind;
+    }
+
+    String getKey() {
+      return key;
+    }
+
+    Object getValue() {
+      return value;
+    }
+
+    @Override
+    public String toString() {
+      switch (kind) {
+        case ILLEGAL_KEY:
+          return "Illegal key value seen: " + key;
+
+        case UNEXPECTED_VALUE:
+          return String.format("Unexpected value seen for %s - %s", key, value);
+
+        default:
+          throw new IllegalStateException("Unknown kind of problem: " + kind);
+      }
+    }
+  }
+}
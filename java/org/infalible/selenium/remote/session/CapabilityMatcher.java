@@ -1,9 +1,39 @@
 package org.infalible.selenium.remote.session;
 
+import com.google.common.collect.ImmutableSet;
+
 import java.util.Map;
+import java.util.Set;
 import java.util.function.Supplier;
 
 @FunctionalInterface
 public interface CapabilityMatcher {
   Supplier<ActiveSession> match(Map<String, Object> capabilities, Map<String, Object> metaInfo);
+
+  /**
+   * @return The {@code browserName} values this matcher could possibly match. Capabilities naming
+   *     any other browser, ignoring case, are never offered to the matcher. Empty if any browser
+   *     might match.
+   */
+  default Set<String> getBrowserNames() {
+    return ImmutableSet.of();
+  }
+
+  /**
+   * @return The {@code platformName} values this matcher could possibly match. Capabilities naming
+   *     a platform outside the families of these are never offered to the matcher. Empty if any
+   *     platform might match.
+   */
+  default Set<String> getPlatformNames() {
+    return ImmutableSet.of();
+  }
+
+  /**
+   * @return The vendor prefixes (such as {@code goog} for {@code goog:chromeOptions}) at least one
+   *     of which must be used by the capabilities for this matcher to match. Empty if the matcher
+   *     doesn't need any extension capabilities.
+   */
+  default Set<String> getVendorPrefixes() {
+    return ImmutableSet.of();
+  }
 }
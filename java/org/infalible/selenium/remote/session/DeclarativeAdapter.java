@@ -0,0 +1,84 @@
+package org.infalible.selenium.remote.session;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@link CapabilitiesAdapter} that is entirely described by the keys, key prefixes and browser
+ * names it declares. {@link JwpToW3CCapabilitiesAdapter} never needs to call {@link #apply(Map)}
+ * on these, which is why it can't be overridden. If anything else calls it, the capabilities are
+ * picked out with a single sequential pass over the map.
+ */
+public abstract class DeclarativeAdapter implements CapabilitiesAdapter {
+
+  private final ImmutableSet<String> keys;
+  private final ImmutableSet<String> keyPrefixes;
+  private final ImmutableSet<String> browserNames;
+
+  /**
+   * @param keys The names of the capabilities this adapter handles.
+   * @param keyPrefixes Prefixes of the names of capabilities this adapter handles.
+   * @param browserNames The {@code browserName} values this adapter handles.
+   */
+  protected DeclarativeAdapter(Set<String> keys, Set<String> keyPrefixes, Set<String> browserNames) {
+    this.keys = ImmutableSet.copyOf(keys);
+    this.keyPrefixes = ImmutableSet.copyOf(keyPrefixes);
+    this.browserNames = ImmutableSet.copyOf(browserNames);
+  }
+
+  /**
+   * @return The names of the capabilities that belong to this adapter.
+   */
+  public Set<String> getKeys() {
+    return keys;
+  }
+
+  /**
+   * @return Prefixes, such as {@code goog:} or {@code ie.}, of the names of capabilities that belong
+   *     to this adapter.
+   */
+  public Set<String> getKeyPrefixes() {
+    return keyPrefixes;
+  }
+
+  /**
+   * @return The {@code browserName} values that this adapter handles. When the capabilities name
+   *     one of these, the {@code browserName} capability belongs to this adapter.
+   */
+  public Set<String> getBrowserNames() {
+    return browserNames;
+  }
+
+  @Override
+  public final Map<String, Object> apply(Map<String, Object> unmodifiedCaps) {
+    ImmutableMap.Builder<String, Object> caps = ImmutableMap.builder();
+    boolean claimedAny = false;
+
+    for (Map.Entry<String, Object> entry : unmodifiedCaps.entrySet()) {
+      if (entry.getValue() != null && claims(entry.getKey(), entry.getValue())) {
+        caps.put(entry);
+        claimedAny = true;
+      }
+    }
+
+    return claimedAny ? caps.build() : null;
+  }
+
+  private boolean claims(String key, Object value) {
+    if (keys.contains(key)) {
+      return true;
+    }
+    if ("browserName".equals(key) && browserNames.contains(value)) {
+      return true;
+    }
+    for (String prefix : keyPrefixes) {
+      if (key.startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
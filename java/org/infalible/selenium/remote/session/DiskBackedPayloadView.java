@@ -1,53 +1,74 @@
 package org.infalible.selenium.remote.session;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.io.CountingOutputStream;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.MalformedJsonException;
 import org.infalible.selenium.json.Json;
 import org.infalible.selenium.json.JsonInput;
 import org.infalible.selenium.json.JsonOutput;
+import org.openqa.selenium.SessionNotCreatedException;
 import org.openqa.selenium.WebDriverException;
-import org.openqa.selenium.io.FileHandler;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.Closeable;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
-import java.io.Writer;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Stream;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.infalible.selenium.json.Json.MAP_TYPE;
 import static org.infalible.selenium.json.Json.OBJECT_TYPE;
-
+import static org.infalible.selenium.json.Json.Representation.COMPACT;
+
+/**
+ * Spills each section of the payload into a single append-only file borrowed from a {@link
+ * SpillFilePool}, keeping track of where each one starts and ends. Sections are read back from
+ * their place in the file when needed. Spill files are reused once the view is closed, so they are
+ * read rather than mapped into memory: a mapping could outlive the view.
+ */
 class DiskBackedPayloadView extends PayloadView implements Closeable {
 
-  private final Set<String> keys;
-  private final Path store;
-  private final Map<String, Path> metadata;
-  private final Path desiredCapabilities;
-  private final Path alwaysMatch;
-  private final Set<Path> firstMatch;
-  private final AtomicBoolean firstMatchesRead = new AtomicBoolean(false);
-
-  DiskBackedPayloadView(Reader in) throws IOException {
-    store = Files.createTempDirectory("payload");
-    desiredCapabilities = store.resolve("desired.json");
-    alwaysMatch = store.resolve("always.json");
-    ImmutableSet.Builder<Path> firstMatches = ImmutableSet.builder();
-    ImmutableSet.Builder<String> keys = ImmutableSet.builder();
-    ImmutableSortedMap.Builder<String, Path> metadata = ImmutableSortedMap.naturalOrder();
-
-    Files.createDirectories(store);
-
-    int metadataCount = 0;
+  private final ImmutableSet<String> keys;
+  private final SpillFilePool.Lease store;
+  private final SpillFilePool.Encoding encoding;
+  private final Map<String, Segment> metadata;
+  private final Segment desiredCapabilities;
+  private final Segment alwaysMatch;
+  private final ImmutableList<Segment> firstMatch;
+
+  DiskBackedPayloadView(Reader in, SpillFilePool pool) throws IOException {
+    store = pool.acquire();
+    encoding = pool.getEncoding();
+
+    ImmutableList.Builder<Segment> firstMatches = null;
+    List<String> keys = new ArrayList<>();
+    ImmutableSortedMap.Builder<String, Segment> metadata = ImmutableSortedMap.naturalOrder();
+    Segment desiredCapabilities = null;
+    Segment alwaysMatch = null;
+
+    try (CountingOutputStream counting =
+             new CountingOutputStream(new BufferedOutputStream(store.newOutputStream()));
+         JsonInput jsonReader = Json.newInput(in, COMPACT)) {
+      SegmentWriter spill = (input, type) -> {
+        long start = counting.getCount();
+        // Closing the output finishes off the segment's encoding, but must leave the file open
+        try (JsonOutput output = Json.newOutput(encoding.encode(new KeepOpen(counting)))) {
+          output.write(input, type);
+        }
+        return new Segment(start, counting.getCount() - start);
+      };
 
-    try (JsonInput jsonReader = Json.newInput(in)) {
       jsonReader.beginObject();
 
       while (jsonReader.hasNext()) {
@@ -56,10 +77,7 @@ class DiskBackedPayloadView extends PayloadView implements Closeable {
 
         switch (name) {
           case "desiredCapabilities":
-            try (Writer writer = Files.newBufferedWriter(desiredCapabilities, UTF_8);
-                  JsonOutput out = Json.newOutput(writer)) {
-              out.write(jsonReader, MAP_TYPE);
-            }
+            desiredCapabilities = spill.write(jsonReader, MAP_TYPE);
             break;
 
           case "capabilities":
@@ -68,29 +86,21 @@ class DiskBackedPayloadView extends PayloadView implements Closeable {
               String key = jsonReader.nextName();
               switch (key) {
                 case "alwaysMatch":
-                  Files.createDirectories(alwaysMatch.getParent());
-                  try (Writer writer = Files.newBufferedWriter(alwaysMatch, UTF_8);
-                       JsonOutput out = Json.newOutput(writer)) {
-                    out.write(jsonReader, MAP_TYPE);
-                  }
+                  alwaysMatch = spill.write(jsonReader, MAP_TYPE);
                   break;
 
                 case "firstMatch":
-                  firstMatchesRead.set(true);
+                  firstMatches = ImmutableList.builder();
                   jsonReader.beginArray();
-                  int count = 0;
                   while (jsonReader.hasNext()) {
-                    Path match = store.resolve("firstMatch").resolve(count + ".json");
-                    Files.createDirectories(match.getParent());
-                    count++;
-                    try (Writer writer = Files.newBufferedWriter(match, UTF_8);
-                         JsonOutput out = Json.newOutput(writer)) {
-                      out.write(jsonReader, MAP_TYPE);
-                    }
-                    firstMatches.add(match);
+                    firstMatches.add(spill.write(jsonReader, MAP_TYPE));
                   }
                   jsonReader.endArray();
                   break;
+
+                default:
+                  jsonReader.skipValue();
+                  break;
               }
             }
             jsonReader.endObject();
@@ -98,26 +108,28 @@ class DiskBackedPayloadView extends PayloadView implements Closeable {
 
           case "requiredCapabilities":
             // Older selenium versions sent this. We Don't care about it.
+            jsonReader.skipValue();
             break;
 
           default:
-            Path path = store.resolve("metadata").resolve(metadataCount + ".json");
-            Files.createDirectories(path.getParent());
-            metadataCount++;
-            try (Writer writer = Files.newBufferedWriter(path, UTF_8);
-                 JsonOutput out = Json.newOutput(writer)) {
-              out.write(jsonReader, OBJECT_TYPE);
-            }
-            metadata.put(name, path);
+            metadata.put(name, spill.write(jsonReader, OBJECT_TYPE));
             break;
         }
       }
       jsonReader.endObject();
+    } catch (MalformedJsonException | JsonParseException | IllegalStateException e) {
+      store.close();
+      throw malformed(e);
+    } catch (IOException | RuntimeException e) {
+      store.close();
+      throw e;
     }
 
-    this.keys = keys.build();
-    this.firstMatch = firstMatches.build();
+    this.keys = ImmutableSet.copyOf(keys);
+    this.firstMatch = firstMatches == null ? null : firstMatches.build();
     this.metadata = metadata.build();
+    this.desiredCapabilities = desiredCapabilities;
+    this.alwaysMatch = alwaysMatch;
   }
 
   @Override
@@ -125,67 +137,101 @@ class DiskBackedPayloadView extends PayloadView implements Closeable {
     return keys.stream();
   }
 
+  @Override
+  boolean containsKey(String key) {
+    return keys.contains(key);
+  }
+
+  @Override
+  boolean mayContainKey(String key) {
+    return keys.contains(key);
+  }
+
   @Override
   Entry getMetadata(String key) {
-    Path path = metadata.get(key);
-    if (path == null) {
+    Segment segment = metadata.get(key);
+    if (segment == null) {
       return null;
     }
 
-    try (BufferedReader reader = Files.newBufferedReader(path, UTF_8);
-         JsonInput input = Json.newInput(reader)) {
-      return new Entry(key, input.read(OBJECT_TYPE));
-    } catch (IOException e) {
-      throw new WebDriverException(e);
-    }
+    return new Entry(key, read(segment, OBJECT_TYPE));
   }
 
   @Override
   Map<String, Object> getAlwaysMatch() {
-    if (!Files.exists(alwaysMatch)) {
+    if (alwaysMatch == null) {
       return ImmutableMap.of();
     }
-    try (Reader reader = Files.newBufferedReader(alwaysMatch, UTF_8);
-        JsonInput input = Json.newInput(reader)) {
-      return input.read(MAP_TYPE);
-    } catch (IOException e) {
-      throw new WebDriverException(e);
-    }
+    return read(alwaysMatch, MAP_TYPE);
   }
 
   @Override
   Stream<Map<String, Object>> getFirstMatches() {
-    if (!firstMatchesRead.get()) {
+    if (firstMatch == null) {
       return Stream.of(ImmutableMap.of());
     }
 
-    return firstMatch.stream()
-        .map(path -> {
-          try (Reader reader = Files.newBufferedReader(path, UTF_8);
-              JsonInput input = Json.newInput(reader)) {
-            return input.read(MAP_TYPE);
-          } catch (IOException e) {
-            throw new WebDriverException(e);
-          }
-        });
+    return firstMatch.stream().map(segment -> read(segment, MAP_TYPE));
   }
 
   @Override
   Map<String, Object> getDesiredCapabilities() {
-    if (!Files.exists(desiredCapabilities)) {
+    if (desiredCapabilities == null) {
       return null;
     }
-    try (Reader reader = Files.newBufferedReader(desiredCapabilities, UTF_8);
-         JsonInput input = Json.newInput(reader)) {
-      return input.read(MAP_TYPE);
+    return read(desiredCapabilities, MAP_TYPE);
+  }
+
+  @Override
+  public void close() {
+    store.close();
+  }
+
+  private <T> T read(Segment segment, Type type) {
+    // Buffered, since the inflater would otherwise read the file a few hundred bytes at a time.
+    InputStream in = new BufferedInputStream(store.newInputStream(segment.offset, segment.length));
+    try (JsonInput input = Json.newInput(encoding.decode(in), COMPACT)) {
+      return input.read(type);
+    } catch (MalformedJsonException | JsonParseException | IllegalStateException e) {
+      throw malformed(e);
     } catch (IOException e) {
       throw new WebDriverException(e);
     }
+  }
 
+  private static SessionNotCreatedException malformed(Exception e) {
+    // Gson reports values of the wrong type as illegal states. Fail as the other views would.
+    return new SessionNotCreatedException("Unable to parse payload: " + e.getMessage(), e);
   }
 
-  @Override
-  public void close() throws IOException {
-    FileHandler.delete(store.toFile());
+  @FunctionalInterface
+  private interface SegmentWriter {
+    Segment write(JsonInput input, Type type) throws IOException;
+  }
+
+  private static class Segment {
+    private final long offset;
+    private final long length;
+
+    Segment(long offset, long length) {
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+
+  private static class KeepOpen extends FilterOutputStream {
+    KeepOpen(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      out.write(bytes, offset, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
   }
 }
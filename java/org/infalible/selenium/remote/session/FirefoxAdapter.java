@@ -1,24 +1,14 @@
 package org.infalible.selenium.remote.session;
 
-import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 
-import java.util.Map;
-import java.util.Objects;
-
-class FirefoxAdapter implements CapabilitiesAdapter {
+class FirefoxAdapter extends DeclarativeAdapter {
   // Note: we don't take a dependency on the FirefoxDriver jar as it might not be on the classpath
 
-  @Override
-  public Map<String, Object> apply(Map<String, Object> unmodifiedCaps) {
-    ImmutableMap<String, Object> caps = unmodifiedCaps.entrySet().parallelStream()
-        .filter(entry ->
-            ("browserName".equals(entry.getKey()) && "firefox".equals(entry.getValue())) ||
-                entry.getKey().startsWith("firefox_") ||
-                entry.getKey().startsWith("moz:"))
-        .filter(entry -> Objects.nonNull(entry.getValue()))
-        .distinct()
-        .collect(ImmutableMap.toImmutableMap(Map.Entry::getKey, Map.Entry::getValue));
-
-      return caps.isEmpty() ? null : caps;
+  FirefoxAdapter() {
+    super(
+        ImmutableSet.of(),
+        ImmutableSet.of("firefox_", "moz:"),
+        ImmutableSet.of("firefox"));
   }
 }
@@ -2,7 +2,9 @@ package org.infalible.selenium.remote.session;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.io.CharStreams;
+import org.infalible.selenium.json.Json;
 import org.openqa.selenium.SessionNotCreatedException;
 
 import java.io.IOException;
@@ -11,18 +13,30 @@ import java.util.Collection;
 import java.util.Map;
 import java.util.stream.Stream;
 
-import static org.infalible.selenium.json.Json.TO_MAP;
+import static org.infalible.selenium.json.Json.Representation.COMPACT;
 
 class InMemoryPayloadView extends PayloadView {
   private final Map<String, Object> completePayload;
+  private final ImmutableSet<String> keys;
 
   InMemoryPayloadView(Reader in) throws IOException {
-    completePayload = TO_MAP.apply(CharStreams.toString(in));
+    completePayload = Json.toMap(COMPACT).apply(CharStreams.toString(in));
+    keys = ImmutableSet.copyOf(completePayload.keySet());
   }
 
   @Override
   public Stream<String> getKeys() {
-    return completePayload.keySet().stream();
+    return keys.stream();
+  }
+
+  @Override
+  boolean containsKey(String key) {
+    return keys.contains(key);
+  }
+
+  @Override
+  boolean mayContainKey(String key) {
+    return keys.contains(key);
   }
 
   @Override
@@ -32,7 +46,7 @@ class InMemoryPayloadView extends PayloadView {
 
   @Override
   public Map<String, Object> getDesiredCapabilities() {
-    if (!completePayload.containsKey("desiredCapabilities")) {
+    if (!keys.contains("desiredCapabilities")) {
       return null;
     }
     return coerceToMap(completePayload.get("desiredCapabilities"));
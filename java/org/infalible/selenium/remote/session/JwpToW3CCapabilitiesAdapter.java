@@ -6,14 +6,17 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedMap;
 import org.openqa.selenium.Capabilities;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
-import java.util.ServiceLoader;
 import java.util.Set;
 import java.util.function.Function;
-import java.util.function.Predicate;
-import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
 /**
@@ -21,23 +24,31 @@ import java.util.stream.Stream;
  */
 public class JwpToW3CCapabilitiesAdapter implements Function<Capabilities,  Stream<Map<String, Object>>> {
 
-  private final Set<CapabilitiesAdapter> adapters;
-
+  // Capabilities that are copied into every generated set of capabilities, unless an adapter claims them.
+  private static final ImmutableSet<String> INJECTABLE = ImmutableSet.of(
+      "acceptInsecureCerts",
+      "browserName",
+      "browserVersion",
+      "platformName",
+      "pageLoadStrategy",
+      "proxy",
+      "setWindowRect",
+      "timeouts",
+      "unhandledPromptBehavior");
+  // Sneakily allow us to inject our own values
+  private static final String INJECTABLE_PREFIX = "se:";
+
+  private final AdapterIndex adapters;
+
+  /**
+   * Use the adapters held by the {@link AdapterRegistry}.
+   */
   public JwpToW3CCapabilitiesAdapter() {
-    ImmutableSet.Builder<CapabilitiesAdapter> builder = ImmutableSet.<CapabilitiesAdapter>builder();
-
-    ServiceLoader<CapabilitiesAdapter> loader = ServiceLoader.load(CapabilitiesAdapter.class);
-    loader.forEach(builder::add);
-
-    builder
-        .add(new ChromeAdapter())
-        .add(new EdgeAdapter())
-        .add(new FirefoxAdapter())
-        .add(new IEAdapter())
-        .add(new OperaAdapter())
-        .add(new SafariAdapter());
+    this.adapters = AdapterRegistry.getAdapters();
+  }
 
-    this.adapters = builder.build();
+  JwpToW3CCapabilitiesAdapter(Collection<CapabilitiesAdapter> adapters) {
+    this.adapters = new AdapterIndex(adapters);
   }
 
   @Override
@@ -51,83 +62,67 @@ public class JwpToW3CCapabilitiesAdapter implements Function<Capabilities,  Stre
       return Stream.of();
     }
 
+    // Sort each capability into the adapters it belongs to, and spot the ones we may need to copy
+    // into every generated set of capabilities, in a single pass.
+    List<ImmutableMap.Builder<String, Object>> claimed = new ArrayList<>(
+        Collections.nCopies(adapters.size(), null));
     Set<String> usedKeys = new HashSet<>();
-
-    // We're going to do this in two passes. The first will let us populate usedKeys, which we can then use to generate
-    // the actual set of results we want to return to the user.
-
-    ImmutableList<Map<String, Object>> generated = adapters.stream()
-        .map(adapter -> adapter.apply(caps))
-        .filter(Objects::nonNull)
-        .peek(map -> usedKeys.addAll(map.keySet()))
-        .collect(ImmutableList.toImmutableList());
-
-    if (generated.isEmpty()) {
-      return Stream.of(caps);
+    Map<String, Object> injectable = new LinkedHashMap<>();
+    BitSet owners = new BitSet();
+
+    for (Map.Entry<String, Object> entry : caps.entrySet()) {
+      String key = entry.getKey();
+      Object value = entry.getValue();
+      if (value == null) {
+        continue;
+      }
+
+      owners.clear();
+      adapters.classify(key, value, owners);
+      for (int i = owners.nextSetBit(0); i >= 0; i = owners.nextSetBit(i + 1)) {
+        if (claimed.get(i) == null) {
+          claimed.set(i, ImmutableMap.builder());
+        }
+        claimed.get(i).put(key, value);
+        usedKeys.add(key);
+      }
+
+      if (INJECTABLE.contains(key) || key.startsWith(INJECTABLE_PREFIX)) {
+        injectable.put(key, value);
+      }
     }
 
-    return generated.stream()
-        .map(new RemainingKeys(usedKeys))
-        .map(new CommonKeys(caps, usedKeys));
-  }
-
-  private static class RemainingKeys implements CapabilitiesAdapter {
-
-    private final Set<String> usedKeys;
-
-    RemainingKeys(Set<String> usedKeys) {
-      this.usedKeys = usedKeys;
+    // Adapters that aren't declarative have to be asked.
+    Map<Integer, Map<String, Object>> asked = new HashMap<>();
+    BitSet undeclared = adapters.undeclared();
+    for (int i = undeclared.nextSetBit(0); i >= 0; i = undeclared.nextSetBit(i + 1)) {
+      Map<String, Object> generated = adapters.get(i).apply(caps);
+      if (generated != null) {
+        asked.put(i, generated);
+        usedKeys.addAll(generated.keySet());
+      }
     }
 
-    @Override
-    public Map<String, Object> apply(Map<String, Object> unmodifedCaps) {
-      ImmutableMap<String, Object> toReturn = unmodifedCaps.entrySet().stream()
-          .filter(entry -> !usedKeys.contains(entry.getKey()))
-          .collect(ImmutableMap.toImmutableMap(Map.Entry::getKey, Map.Entry::getValue));
-
-      // If `usedKeys` is empty, we were given an empty map at the start of the process. Nothing will have matched.
-      return toReturn.isEmpty() && !usedKeys.isEmpty() ? unmodifedCaps : toReturn;
+    ImmutableList.Builder<Map<String, Object>> builder = ImmutableList.builder();
+    for (int i = 0; i < adapters.size(); i++) {
+      if (claimed.get(i) != null) {
+        builder.add(claimed.get(i).build());
+      } else if (asked.containsKey(i)) {
+        builder.add(asked.get(i));
+      }
     }
-  }
+    ImmutableList<Map<String, Object>> generated = builder.build();
 
-  private static class CommonKeys implements Function<Map<String, Object>, Map<String, Object>> {
-
-    private static final Predicate<String> INJECTABLE =
-        Stream.of(
-                "^acceptInsecureCerts$",
-                "^browserName$",
-                "^browserVersion$",
-                "^platformName$",
-                "^pageLoadStrategy$",
-                "^proxy$",
-                "^setWindowRect$",
-                "^se:.*$",          // Sneakily allow us to inject our own values
-                "^timeouts$",
-                "^unhandledPromptBehavior$")
-            .map(Pattern::compile)
-            .map(Pattern::asPredicate)
-            .reduce(identity -> false, Predicate::or);
-
-    private final Map<String, Object> injectedValues;
-
-    CommonKeys(Map<String, Object> deriveFrom, Set<String> usedKeys) {
-      this.injectedValues = deriveFrom.entrySet().stream()
-          .filter(entry -> INJECTABLE.test(entry.getKey()))
-          .filter(entry -> !usedKeys.contains(entry.getKey()))
-          .filter(entry -> Objects.nonNull(entry.getValue()))
-          .collect(ImmutableMap.toImmutableMap(Map.Entry::getKey, Map.Entry::getValue));
+    if (generated.isEmpty()) {
+      return Stream.of(caps);
     }
 
-    @Override
-    public Map<String, Object> apply(Map<String, Object> in) {
-      ImmutableSortedMap.Builder<String, Object> builder = ImmutableSortedMap.naturalOrder();
-      builder.putAll(in);
-
-      injectedValues.entrySet().stream()
-          .filter(entry -> !in.containsKey(entry.getKey()))
-          .forEach(builder::put);
-
-      return builder.build();
-    }
+    injectable.keySet().removeAll(usedKeys);
+    return generated.stream().map(in -> {
+      ImmutableSortedMap.Builder<String, Object> merged = ImmutableSortedMap.naturalOrder();
+      merged.putAll(in);
+      merged.putAll(injectable);
+      return merged.build();
+    });
   }
 }
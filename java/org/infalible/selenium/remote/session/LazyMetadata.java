@@ -0,0 +1,107 @@
+package org.infalible.selenium.remote.session;
+
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Ordering;
+
+import java.util.AbstractMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Predicate;
+
+/**
+ * The metadata of a payload, shared by every section of it. Each value is only read from the
+ * {@link PayloadView} the first time it's asked for, and then remembered, so metadata nobody looks
+ * at costs nothing. Before the payload is closed, any values not yet read can be {@link #detach()
+ * read in one go} so that the map keeps working afterwards. Entries with {@code null} values are
+ * left out.
+ *
+ * <p>Sections may be handed to other threads, so this is safe to share. Values are read from the
+ * view while holding its lock, one at a time. Asking for a key that a {@link StreamingPayloadView}
+ * hasn't reached yet reads the payload until the key is found, or to the end if it isn't there.
+ */
+class LazyMetadata extends AbstractMap<String, Object> {
+
+  // Remembers that a key has already been looked up, and had no value.
+  private static final Object ABSENT = new Object();
+
+  private final PayloadView view;
+  private final Predicate<String> isMetadata;
+  // Only added to while holding the view's lock, but read without it.
+  private final ConcurrentMap<String, Object> values = new ConcurrentHashMap<>();
+  // Listing the entries means reading every value, so that's only done once.
+  private volatile ImmutableSortedMap<String, Object> all;
+
+  LazyMetadata(PayloadView view, Predicate<String> isMetadata) {
+    this.view = Objects.requireNonNull(view, "Payload view must be set");
+    this.isMetadata = Objects.requireNonNull(isMetadata, "Metadata predicate must be set");
+  }
+
+  @Override
+  public Object get(Object key) {
+    if (!(key instanceof String) || !isMetadata.test((String) key)) {
+      return null;
+    }
+
+    ImmutableSortedMap<String, Object> all = this.all;
+    if (all != null) {
+      return all.get(key);
+    }
+    if (!view.mayContainKey((String) key)) {
+      return null;
+    }
+
+    Object value = values.get(key);
+    if (value == null) {
+      value = load((String) key);
+    }
+    return value == ABSENT ? null : value;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return get(key) != null;
+  }
+
+  @Override
+  public Set<Entry<String, Object>> entrySet() {
+    return all().entrySet();
+  }
+
+  /**
+   * Read every value that hasn't been read yet, so that the view is no longer needed.
+   */
+  void detach() {
+    all();
+  }
+
+  private ImmutableSortedMap<String, Object> all() {
+    ImmutableSortedMap<String, Object> result = all;
+    if (result == null) {
+      synchronized (view) {
+        result = all;
+        if (result == null) {
+          result = view.getKeys()
+              .filter(isMetadata)
+              .filter(key -> get(key) != null)
+              .collect(ImmutableSortedMap.toImmutableSortedMap(Ordering.natural(), key -> key, this::get));
+          all = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  private Object load(String key) {
+    synchronized (view) {
+      Object value = values.get(key);
+      if (value == null) {
+        PayloadView.Entry entry = view.getMetadata(key);
+        value = entry == null || entry.getValue() == null ? ABSENT : entry.getValue();
+        values.put(key, value);
+      }
+      return value;
+    }
+  }
+}
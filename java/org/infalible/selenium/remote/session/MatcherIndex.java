@@ -0,0 +1,141 @@
+package org.infalible.selenium.remote.session;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.openqa.selenium.Platform;
+import org.openqa.selenium.WebDriverException;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Uses the {@code browserName}, {@code platformName} and vendor prefixes that each {@link
+ * CapabilityMatcher} declares to narrow down which matchers could possibly match a set of
+ * capabilities, so we don't need to ask all of them. Matchers are offered capabilities in the order
+ * they were registered.
+ *
+ * <p>Browser names are compared ignoring case. Platform names are compared by the {@link Platform}
+ * family they belong to, so that {@code WIN10} and {@code windows} are treated alike, and so are
+ * {@code linux} and {@code unix}. Whether the platforms within a family really match is still left
+ * to the matcher.
+ */
+class MatcherIndex {
+
+  private final ImmutableList<CapabilityMatcher> matchers;
+  private final Dimension browserNames;
+  private final Dimension platformNames;
+  private final Dimension vendorPrefixes;
+
+  MatcherIndex(List<CapabilityMatcher> matchers) {
+    this.matchers = ImmutableList.copyOf(matchers);
+    this.browserNames = new Dimension(
+        this.matchers, CapabilityMatcher::getBrowserNames, MatcherIndex::normalizeBrowserName);
+    this.platformNames = new Dimension(
+        this.matchers, CapabilityMatcher::getPlatformNames, MatcherIndex::platformFamily);
+    this.vendorPrefixes = new Dimension(
+        this.matchers, CapabilityMatcher::getVendorPrefixes, Function.identity());
+  }
+
+  Stream<CapabilityMatcher> candidatesFor(Map<String, Object> capabilities) {
+    BitSet candidates = browserNames.candidatesFor(capabilities.get("browserName"));
+    candidates.and(platformNames.candidatesFor(capabilities.get("platformName")));
+
+    BitSet vendors = vendorPrefixes.wildcards();
+    for (String key : capabilities.keySet()) {
+      int index = key.indexOf(':');
+      if (index > 0) {
+        vendors.or(vendorPrefixes.declaring(key.substring(0, index)));
+      }
+    }
+    candidates.and(vendors);
+
+    return candidates.stream().mapToObj(matchers::get);
+  }
+
+  private static String normalizeBrowserName(String browserName) {
+    return browserName.toLowerCase(Locale.ENGLISH);
+  }
+
+  /**
+   * @return The name of the family {@code platformName} belongs to, or {@code null} if it stands for
+   *     any platform. Names that aren't known platforms are only normalised for case.
+   */
+  private static String platformFamily(String platformName) {
+    Platform platform;
+    try {
+      platform = Platform.fromString(platformName);
+    } catch (WebDriverException e) {
+      return platformName.toLowerCase(Locale.ENGLISH);
+    }
+
+    if (platform == Platform.ANY) {
+      return null;
+    }
+    while (platform.family() != null) {
+      platform = platform.family();
+    }
+    return platform.name();
+  }
+
+  private static class Dimension {
+    private final int size;
+    private final BitSet wildcards = new BitSet();
+    private final ImmutableMap<String, BitSet> declared;
+    // Applied to both declared and requested values. Returns null for values that match anything.
+    private final Function<String, String> normalize;
+
+    Dimension(
+        List<CapabilityMatcher> matchers,
+        Function<CapabilityMatcher, Set<String>> getValues,
+        Function<String, String> normalize) {
+      this.size = matchers.size();
+      this.normalize = normalize;
+
+      Map<String, BitSet> declared = new HashMap<>();
+      for (int i = 0; i < matchers.size(); i++) {
+        Set<String> values = getValues.apply(matchers.get(i));
+        if (values == null || values.isEmpty()) {
+          wildcards.set(i);
+          continue;
+        }
+        for (String value : values) {
+          String normalized = normalize.apply(value);
+          if (normalized == null) {
+            wildcards.set(i);
+          } else {
+            declared.computeIfAbsent(normalized, key -> new BitSet()).set(i);
+          }
+        }
+      }
+      this.declared = ImmutableMap.copyOf(declared);
+    }
+
+    BitSet wildcards() {
+      return (BitSet) wildcards.clone();
+    }
+
+    BitSet declaring(String value) {
+      BitSet bits = declared.get(normalize.apply(value));
+      return bits == null ? new BitSet() : bits;
+    }
+
+    /**
+     * @return Every matcher that could handle {@code value}. If no value is given, any matcher could.
+     */
+    BitSet candidatesFor(Object value) {
+      BitSet candidates = wildcards();
+      if (!(value instanceof String) || normalize.apply((String) value) == null) {
+        candidates.set(0, size);
+      } else {
+        candidates.or(declaring((String) value));
+      }
+      return candidates;
+    }
+  }
+}
@@ -1,97 +1,114 @@
 package org.infalible.selenium.remote.session;
 
-import com.google.common.collect.ImmutableMap;
+import com.google.common.base.Joiner;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.ImmutableSortedMap;
-import com.google.common.collect.Ordering;
-import com.google.common.collect.Sets;
 import org.openqa.selenium.SessionNotCreatedException;
 import org.openqa.selenium.remote.Dialect;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.Reader;
+import java.lang.ref.SoftReference;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.TreeMap;
-import java.util.function.Predicate;
-import java.util.regex.Pattern;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
-
-import static org.infalible.selenium.remote.session.Validators.IS_BOOLEAN;
-import static org.infalible.selenium.remote.session.Validators.IS_PAGE_LOADING_STRATEGY;
-import static org.infalible.selenium.remote.session.Validators.IS_PROXY;
-import static org.infalible.selenium.remote.session.Validators.IS_STRING;
-import static org.infalible.selenium.remote.session.Validators.IS_TIMEOUT;
-import static org.infalible.selenium.remote.session.Validators.IS_UNHANDLED_PROMPT_BEHAVIOR;
+import java.util.stream.StreamSupport;
 
 public class NewSessionPayload implements Closeable {
 
-  private final static Predicate<String> ACCEPTED_W3C_PATTERNS = Stream.of(
-      "^[\\w-]+:.*$",
-      "^acceptInsecureCerts$",
-      "^browserName$",
-      "^browserVersion$",
-      "^platformName$",
-      "^pageLoadStrategy$",
-      "^proxy$",
-      "^setWindowRect$",
-      "^timeouts$",
-      "^unhandledPromptBehavior$")
-      .map(Pattern::compile)
-      .map(Pattern::asPredicate)
-      .reduce(identity -> false, Predicate::or);
-
-  private final static Map<String, Predicate<Object>> TYPE_CHECKS = ImmutableMap.<String, Predicate<Object>>builder()
-      .put("acceptInsecureCerts", IS_BOOLEAN)
-      .put("browserName", IS_STRING)
-      .put("browserVersion", IS_STRING)
-      .put("platformName", IS_STRING)
-      .put("pageLoadingStrategy", IS_PAGE_LOADING_STRATEGY)
-      .put("proxy", IS_PROXY)
-      .put("setWindowRect", IS_BOOLEAN)
-      .put("timeouts", IS_TIMEOUT)
-      .put("unhandledPromptBehavior", IS_UNHANDLED_PROMPT_BEHAVIOR)
-      .build();
-
   private final static Set<String> DEFINITELY_NOT_METADATA = ImmutableSet.of(
       "capabilities",
       "desiredCapabilities",
       "requiredCapabilities"
   );
-  // Dedicate up to 10% of max ram to holding the payload
-  private static final long THRESHOLD = Runtime.getRuntime().maxMemory() / 10;
 
   private final PayloadView view;
+  private final PayloadMemoryBudget.Reservation reservation;
+  // The merged W3C sections, kept from when they were validated. Payloads that spilled to disk only
+  // hold these softly, so that they're read back from the spill file if memory runs short rather
+  // than keeping the payload in memory regardless.
+  private final Supplier<List<Map<String, Object>>> w3cSections;
+  private final LazyMetadata metadata;
+  // Set once sections, and so the metadata, may have been handed out.
+  private volatile boolean streamed;
 
   public NewSessionPayload(Reader in, int estimatedLength) throws IOException {
-    if (estimatedLength > THRESHOLD || Runtime.getRuntime().freeMemory() < estimatedLength) {
-      this.view = new DiskBackedPayloadView(in);
-    } else {
-      this.view = new InMemoryPayloadView(in);
+    this(in, estimatedLength, PayloadMemoryBudget.getDefault());
+  }
+
+  public NewSessionPayload(Reader in, int estimatedLength, PayloadMemoryBudget budget)
+      throws IOException {
+    this(in, estimatedLength, budget, SpillFilePool.getDefault());
+  }
+
+  /**
+   * @param estimatedLength The length of the payload, or a negative number if that isn't known, in
+   *     which case the payload is spilled to disk.
+   * @param budget The memory that this payload shares with others.
+   * @param spillFiles Where the payload is written if it doesn't fit in the budget.
+   */
+  public NewSessionPayload(
+      Reader in,
+      int estimatedLength,
+      PayloadMemoryBudget budget,
+      SpillFilePool spillFiles) throws IOException {
+    Objects.requireNonNull(budget, "Memory budget must be set");
+    Objects.requireNonNull(spillFiles, "Spill file pool must be set");
+
+    this.reservation = budget.reserve(estimatedLength);
+    try {
+      if (reservation == null) {
+        this.view = new DiskBackedPayloadView(in, spillFiles);
+        this.w3cSections = new SoftReference<>(validateW3CCapabilities(view))::get;
+      } else {
+        this.view = new InMemoryPayloadView(in);
+        this.w3cSections = Suppliers.ofInstance(validateW3CCapabilities(view));
+      }
+      this.metadata = new LazyMetadata(view, NewSessionPayload::isMetadata);
+    } catch (IOException | RuntimeException e) {
+      close();
+      throw e;
     }
+  }
+
+  private NewSessionPayload(StreamingPayloadView view) {
+    this.view = view;
+    this.reservation = null;
+    this.w3cSections = () -> null;
+    this.metadata = new LazyMetadata(view, NewSessionPayload::isMetadata);
+  }
+
+  /**
+   * Create a payload that is read from {@code in} only as sections are asked for. W3C sections are
+   * validated as they are read rather than up front, and the payload may only be {@link #stream()
+   * streamed} once. Closing the payload doesn't read any more of it, so metadata that hasn't been
+   * read by then can no longer be.
+   */
+  public static NewSessionPayload fromStream(Reader in) throws IOException {
+    return new NewSessionPayload(new StreamingPayloadView(in));
+  }
 
-    validate(this.view);
+  boolean isStreaming() {
+    return view instanceof StreamingPayloadView;
   }
 
-  private void validate(PayloadView view) {
-    extractW3CCapabilities(view).forEach(
-            map -> {
-              for (Map.Entry<String, Object> entry : map.entrySet()) {
-                if (!ACCEPTED_W3C_PATTERNS.test(entry.getKey())) {
-                  throw new SessionNotCreatedException("Illegal key value seen: " + entry.getKey());
-                }
+  private List<Map<String, Object>> validateW3CCapabilities(PayloadView view) {
+    return extractW3CCapabilities(view, true).collect(ImmutableList.toImmutableList());
+  }
 
-                if (!TYPE_CHECKS.getOrDefault(entry.getKey(), obj -> true).test(entry.getValue())) {
-                  throw new SessionNotCreatedException(
-                      String.format(
-                          "Unexpected value seen for %s - %s",
-                          entry.getKey(),
-                          entry.getValue()));
-                }
-              }
-            });
+  private void validate(Map<String, Object> map) {
+    List<CapabilitiesValidator.Problem> problems = CapabilitiesValidator.W3C.validate(map);
+    if (!problems.isEmpty()) {
+      throw new SessionNotCreatedException(Joiner.on("\n").join(problems));
+    }
   }
 
   public Set<Dialect> getDownstreamDialects() {
@@ -107,54 +124,116 @@ public class NewSessionPayload implements Closeable {
 
   @Override
   public void close() throws IOException {
-    if (view instanceof Closeable) {
-      ((Closeable) view).close();
+    try {
+      // Sections may be used after the payload is closed, by which time its spill file may have been
+      // reused, so read what's left of the metadata first. Streamed payloads are left alone, since
+      // that would mean reading the rest of the request.
+      if (streamed && view instanceof DiskBackedPayloadView) {
+        metadata.detach();
+      }
+    } finally {
+      closeView();
+    }
+  }
+
+  private void closeView() throws IOException {
+    try {
+      if (view instanceof Closeable) {
+        ((Closeable) view).close();
+      }
+    } finally {
+      if (reservation != null) {
+        reservation.close();
+      }
     }
   }
 
   public Stream<PayloadSection> stream() {
-    // Pick out the pieces
-    ImmutableSortedMap<String, Object> metadata = view.getKeys()
-        .filter(key -> !DEFINITELY_NOT_METADATA.contains(key))
-        .map(view::getMetadata)
-        .filter(entry -> Objects.nonNull(entry.getValue()))
-        .collect(ImmutableSortedMap.toImmutableSortedMap(
-            Ordering.natural(),
-            PayloadView.Entry::getKey,
-            PayloadView.Entry::getValue));
-
-    return Stream.concat(
-        extractOssCapabilities(view),
-        extractW3CCapabilities(view))
+    streamed = true;
+
+    if (isStreaming()) {
+      return streamInPayloadOrder((StreamingPayloadView) view);
+    }
+
+    // Everything has already been validated, so there's no need to do that again.
+    List<Map<String, Object>> validated = w3cSections.get();
+    Stream<Map<String, Object>> w3c =
+        validated == null ? extractW3CCapabilities(view, false) : validated.stream();
+
+    return Stream.concat(extractOssCapabilities(view), w3c)
         .filter(Objects::nonNull)
         .map(caps -> new PayloadSection(caps, metadata));
   }
 
+  private Stream<PayloadSection> streamInPayloadOrder(StreamingPayloadView view) {
+    // Hand out sections in the order they appear so that we never need to read ahead to find them.
+    // Nothing is extracted until the previous sections have been consumed.
+    Stream<Map<String, Object>> oss = lazily(() -> extractOssCapabilities(view));
+    Stream<Map<String, Object>> w3c = lazily(() -> extractW3CCapabilities(view, true));
+
+    boolean w3cFirst = "capabilities".equals(view.firstKeyOf("capabilities", "desiredCapabilities"));
+
+    return (w3cFirst ? Stream.concat(w3c, oss) : Stream.concat(oss, w3c))
+        .filter(Objects::nonNull)
+        .map(caps -> new PayloadSection(caps, metadata));
+  }
+
+  private static <T> Stream<T> lazily(Supplier<Stream<T>> supplier) {
+    // Not `flatMap`, since that buffers the entire inner stream when iterated. Not a supplier of
+    // the spliterator either, since Stream.concat asks for its size, which would call the supplier
+    // before any section had been taken.
+    Spliterator<T> spliterator = new Spliterators.AbstractSpliterator<T>(
+        Long.MAX_VALUE,
+        Spliterator.ORDERED) {
+      private Spliterator<T> delegate;
+
+      @Override
+      public boolean tryAdvance(Consumer<? super T> action) {
+        if (delegate == null) {
+          delegate = supplier.get().spliterator();
+        }
+        return delegate.tryAdvance(action);
+      }
+    };
+    return StreamSupport.stream(spliterator, false);
+  }
+
+  private static boolean isMetadata(String key) {
+    return !DEFINITELY_NOT_METADATA.contains(key);
+  }
 
   private Stream<Map<String, Object>> extractOssCapabilities(PayloadView view) {
     return new JwpToW3CCapabilitiesAdapter().apply(view.getDesiredCapabilities());
   }
 
-  private Stream<Map<String, Object>> extractW3CCapabilities(PayloadView view) {
+  /**
+   * @param validate Whether to validate the sections. Since a firstMatch entry may not share any
+   *     keys with alwaysMatch, validating each of them separately is the same as validating the
+   *     merged section, and means alwaysMatch is only validated once.
+   */
+  private Stream<Map<String, Object>> extractW3CCapabilities(PayloadView view, boolean validate) {
     if (!view.containsKey("capabilities")) {
       return Stream.of();
     }
 
     Map<String, Object> alwaysMatch = view.getAlwaysMatch();
-    Set<String> alwaysMatchKeys = alwaysMatch.keySet();
+    Set<String> alwaysMatchKeys = ImmutableSet.copyOf(alwaysMatch.keySet());
+    if (validate) {
+      validate(alwaysMatch);
+    }
 
     return view.getFirstMatches()
         .peek(map -> {
-          Set<String> duplicates = Sets.intersection(alwaysMatchKeys, map.keySet());
+          Set<String> duplicates = map.keySet().stream()
+              .filter(alwaysMatchKeys::contains)
+              .collect(ImmutableSet.toImmutableSet());
           if (!duplicates.isEmpty()) {
             throw new SessionNotCreatedException("Duplicate keys seen in w3c payload: " + duplicates);
           }
+          if (validate) {
+            validate(map);
+          }
         })
-        .map(map -> {
-          Map<String, Object> toReturn = new TreeMap<>();
-          toReturn.putAll(alwaysMatch);
-          toReturn.putAll(map);
-          return toReturn;
-        });
+        .map(map -> new OverlayMap(alwaysMatch, map));
   }
 }
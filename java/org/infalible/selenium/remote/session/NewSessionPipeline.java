@@ -1,24 +1,41 @@
 package org.infalible.selenium.remote.session;
 
-import com.google.common.collect.ImmutableList;
 import org.openqa.selenium.SessionNotCreatedException;
 
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 public class NewSessionPipeline {
 
-  private final ImmutableList<CapabilityMatcher> matchers;
+  // Marks a speculative start as over, so that any sessions started afterwards are closed.
+  private static final ActiveSession ABANDONED = new ActiveSession() {};
+
+  private final MatcherIndex matchers;
   private final Comparator<Supplier<ActiveSession>> comparator;
+  private final int speculativeStarts;
+  private final Executor executor;
 
   private NewSessionPipeline(
       Comparator<Supplier<ActiveSession>> comparator,
-      List<CapabilityMatcher> matchers) {
+      List<CapabilityMatcher> matchers,
+      int speculativeStarts,
+      Executor executor) {
     this.comparator = comparator;
-    this.matchers = ImmutableList.copyOf(matchers);
+    this.matchers = new MatcherIndex(matchers);
+    this.speculativeStarts = speculativeStarts;
+    this.executor = executor;
   }
 
   public static Builder builder() {
@@ -26,32 +43,127 @@ public class NewSessionPipeline {
   }
 
   public ActiveSession newSession(NewSessionPayload payload) {
-    return payload.stream()
-        .flatMap(section -> matchers.stream()
-            .map(matcher -> matcher.match(section.getCapabilities(), section.getMetadata()))
-            .filter(Objects::nonNull))
-        .sorted(comparator)
-        .map(supplier -> {
-          try {
-            return supplier.get();
-          } catch (Exception e) {
-            return null;
-          }
-        })
-        .filter(Objects::nonNull)
-        .findFirst()
-        .orElseThrow(() -> new SessionNotCreatedException("Unable to find matching provider for session"));
+    if (payload.isStreaming()) {
+      return newSessionAsSectionsArrive(payload);
+    }
+
+    ActiveSession session = start(payload.stream().flatMap(this::match).sorted(comparator).iterator());
+    if (session == null) {
+      throw new SessionNotCreatedException("Unable to find matching provider for session");
+    }
+    return session;
+  }
+
+  /**
+   * Sorting every candidate would mean reading the entire payload before starting anything, so
+   * providers are only ranked against others matching the same section, and sections are tried in
+   * the order they're read.
+   */
+  private ActiveSession newSessionAsSectionsArrive(NewSessionPayload payload) {
+    Iterator<PayloadSection> sections = payload.stream().iterator();
+    while (sections.hasNext()) {
+      ActiveSession session = start(match(sections.next()).sorted(comparator).iterator());
+      if (session != null) {
+        return session;
+      }
+    }
+    throw new SessionNotCreatedException("Unable to find matching provider for session");
+  }
+
+  private Stream<Supplier<ActiveSession>> match(PayloadSection section) {
+    return matchers.candidatesFor(section.getCapabilities())
+        .map(matcher -> matcher.match(section.getCapabilities(), section.getMetadata()))
+        .filter(Objects::nonNull);
+  }
+
+  private ActiveSession start(Iterator<Supplier<ActiveSession>> candidates) {
+    if (speculativeStarts > 1) {
+      return startSpeculatively(candidates);
+    }
+
+    while (candidates.hasNext()) {
+      ActiveSession session = tryStart(candidates.next());
+      if (session != null) {
+        return session;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Keep up to {@link #speculativeStarts} candidates starting at the same time, in the order they
+   * are ranked. Whichever finishes starting first wins, and the others are cancelled or, if they
+   * manage to start anyway, closed.
+   */
+  private ActiveSession startSpeculatively(Iterator<Supplier<ActiveSession>> candidates) {
+    AtomicReference<ActiveSession> winner = new AtomicReference<>();
+    CompletionService<ActiveSession> completions = new ExecutorCompletionService<>(executor);
+    List<Future<ActiveSession>> launched = new ArrayList<>();
+    ActiveSession session = null;
+
+    try {
+      int inFlight = 0;
+      while (true) {
+        while (inFlight < speculativeStarts && candidates.hasNext()) {
+          Supplier<ActiveSession> candidate = candidates.next();
+          launched.add(completions.submit(() -> {
+            ActiveSession started = tryStart(candidate);
+            if (started != null && !winner.compareAndSet(null, started)) {
+              started.close();
+              return null;
+            }
+            return started;
+          }));
+          inFlight++;
+        }
+
+        if (inFlight == 0) {
+          return null;
+        }
+
+        try {
+          session = completions.take().get();
+        } catch (ExecutionException e) {
+          session = null;
+        }
+        inFlight--;
+
+        if (session != null) {
+          return session;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SessionNotCreatedException("Interrupted while starting new session", e);
+    } finally {
+      launched.forEach(future -> future.cancel(true));
+
+      // If we're not handing back the winner, make sure nothing is left running
+      if (!winner.compareAndSet(null, ABANDONED) && winner.get() != session) {
+        winner.get().close();
+      }
+    }
+  }
+
+  private ActiveSession tryStart(Supplier<ActiveSession> supplier) {
+    try {
+      return supplier.get();
+    } catch (Exception e) {
+      return null;
+    }
   }
 
   public static class Builder {
     private List<CapabilityMatcher> matchers = new LinkedList<>();
     private Comparator<Supplier<ActiveSession>> comparator = new DefaultProviderComparator();
+    private int speculativeStarts = 1;
+    private Executor executor;
 
     private Builder() {
     }
 
     public NewSessionPipeline build() {
-      return new NewSessionPipeline(comparator, matchers);
+      return new NewSessionPipeline(comparator, matchers, speculativeStarts, executor);
     }
 
     public Builder match(CapabilityMatcher matcher) {
@@ -64,6 +176,21 @@ public class NewSessionPipeline {
       return this;
     }
 
+    /**
+     * Rather than trying each matching provider in turn, start up to {@code candidates} of the
+     * highest ranked ones at the same time using {@code executor}, and use whichever starts first.
+     * The executor should be able to run at least that many tasks at once. Where the JDK offers
+     * them, an executor that uses virtual threads is a good fit.
+     */
+    public Builder startSpeculatively(int candidates, Executor executor) {
+      if (candidates < 1) {
+        throw new IllegalArgumentException("Must start at least one candidate at a time: " + candidates);
+      }
+      this.speculativeStarts = candidates;
+      this.executor = Objects.requireNonNull(executor, "Executor must not be null");
+      return this;
+    }
+
   }
 
 }
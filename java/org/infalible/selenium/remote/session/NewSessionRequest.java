@@ -1,8 +1,15 @@
 package org.infalible.selenium.remote.session;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import org.infalible.function.ThrowingConsumer;
+import org.infalible.selenium.json.CanonicalJson;
+import org.infalible.selenium.json.Fingerprint;
 import org.infalible.selenium.json.Json;
+import org.infalible.selenium.json.JsonInput;
 import org.infalible.selenium.json.JsonOutput;
 import org.infalible.selenium.w3c.W3CCapabilities;
 import org.openqa.selenium.Capabilities;
@@ -18,41 +25,76 @@ import org.openqa.selenium.remote.http.HttpRequest;
 import org.openqa.selenium.remote.http.HttpResponse;
 import org.openqa.selenium.remote.internal.JreHttpClient;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
-import java.io.Writer;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.net.URL;
-import java.util.HashSet;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Set;
 import java.util.stream.Stream;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.infalible.selenium.json.Json.MAP_TYPE;
+import static org.infalible.selenium.json.Json.OBJECT_TYPE;
+import static org.infalible.selenium.json.Json.Representation.COMPACT;
 
 public class NewSessionRequest {
 
+  private static final ThreadLocal<RequestBuffer> BUFFERS = ThreadLocal.withInitial(RequestBuffer::new);
+
+  /**
+   * The system property giving the most bytes of encoded payloads to cache. Defaults to 16MB.
+   */
+  public static final String PAYLOAD_CACHE_SIZE_PROPERTY = "infalible.payload.cache.maxBytes";
+
+  // Roughly what each entry costs beyond the encoded payload: the key, and the cache's own nodes.
+  private static final int ENTRY_OVERHEAD = 128;
+
+  // Test suites tend to ask for the same capabilities over and over again, so hang on to the
+  // encoded payloads of recent requests.
+  private static final Cache<Fingerprint, byte[]> ENCODED_PAYLOADS = CacheBuilder.newBuilder()
+      .maximumWeight(Long.getLong(PAYLOAD_CACHE_SIZE_PROPERTY, 16 * 1024 * 1024))
+      .<Fingerprint, byte[]>weigher((key, bytes) -> ENTRY_OVERHEAD + bytes.length)
+      .recordStats()
+      .build();
+
+  static {
+    // The adapters decide what the W3C half of a JSON Wire Protocol payload looks like.
+    AdapterRegistry.addRefreshListener(ENCODED_PAYLOADS::invalidateAll);
+  }
+
   private final Object source;
+  private final Fingerprint cacheKey;
   private final ThrowingConsumer<JsonOutput> writeToStream;
 
   public NewSessionRequest(Map<String, Object> metadata, Capabilities caps) {
     this.source = Objects.requireNonNull(caps);
 
+    // Take copies so that the payload can't change after it's been cached.
+    Map<String, Object> meta = snapshot(metadata);
+    Map<String, Object> capsMap = snapshot(caps.asMap());
+    this.cacheKey = CanonicalJson.fingerprint(Arrays.asList(Dialect.OSS.name(), meta, capsMap));
+
     this.writeToStream =
         json -> {
           json.beginObject();
 
           // Write metadata
-          for (Map.Entry<String, Object> entry : metadata.entrySet()) {
+          for (Map.Entry<String, Object> entry : meta.entrySet()) {
             json.name(entry.getKey()).write(entry.getValue(), Json.OBJECT_TYPE);
           }
 
-          Map<String, ?> capsMap = caps.asMap();
-
           // Write JSON Wire protocol payload
           json.name("desiredCapabilities").write(capsMap, MAP_TYPE);
 
@@ -60,7 +102,7 @@ public class NewSessionRequest {
           json.name("capabilities").beginObject().name("firstMatch").beginArray();
 
           new JwpToW3CCapabilitiesAdapter()
-              .apply(caps)
+              .apply(capsMap)
               .forEach(map -> json.write(map, MAP_TYPE));
           json.endArray().endObject();
 
@@ -72,15 +114,23 @@ public class NewSessionRequest {
   public NewSessionRequest(W3CCapabilities caps) {
     this.source = Objects.requireNonNull(caps);
 
+    // Take copies so that the payload can't change after it's been cached.
+    Map<String, Object> meta = snapshot(caps.getMetadata());
+    Map<String, Object> always = snapshot(caps.getAlwaysMatch().asMap());
+    List<Map<String, Object>> firsts = caps.getFirstMatches().stream()
+        .map(first -> snapshot(first.asMap()))
+        .collect(ImmutableList.toImmutableList());
+    this.cacheKey =
+        CanonicalJson.fingerprint(Arrays.asList(Dialect.W3C.name(), meta, always, firsts));
+
     this.writeToStream =
         json -> {
           json.beginObject();
 
-          Map<String, ?> always = caps.getAlwaysMatch().asMap();
-          Iterator<Capabilities> firstIter = caps.getFirstMatches().iterator();
-          Map<String, ?> first = firstIter.next().asMap();
+          Iterator<Map<String, Object>> firstIter = firsts.iterator();
+          Map<String, Object> first = firstIter.next();
 
-          caps.getMetadata().forEach((key, value) -> json.name(key).write(value, Json.OBJECT_TYPE));
+          meta.forEach((key, value) -> json.name(key).write(value, Json.OBJECT_TYPE));
           json.name("capabilities").beginObject();
 
           json.name("alwaysMatch").write(always, Json.MAP_TYPE);
@@ -88,7 +138,7 @@ public class NewSessionRequest {
           json.name("firstMatch").beginArray();
           json.write(first, Json.MAP_TYPE);
           while (firstIter.hasNext()) {
-            json.write(firstIter.next().asMap(), Json.MAP_TYPE);
+            json.write(firstIter.next(), Json.MAP_TYPE);
           }
           json.endArray();
 
@@ -110,33 +160,12 @@ public class NewSessionRequest {
     request.addHeader("Content-Type", "application/json; charset=utf-8");
     request.addHeader("Cache-Control", "no-cache");
 
-    try (PipedInputStream in = new PipedInputStream(1024 * 1024)) {
-      request.setContent(in);
-
-      Set<Throwable> exception = new HashSet<>();
-      Thread thread = new Thread(() -> {
-        try (PipedOutputStream out = new PipedOutputStream(in);
-             Writer writer = new OutputStreamWriter(out, UTF_8);
-             JsonOutput json = Json.newOutput(writer)) {
-          writeToStream.accept(json);
-        } catch (IOException e) {
-          throw new RuntimeException(e);
-        }
-      });
-      thread.setUncaughtExceptionHandler((t, e) -> exception.add(e));
-      thread.setName("New Session request");
-      thread.start();
+    try {
+      request.setContent(ENCODED_PAYLOADS.get(cacheKey, this::encode));
 
-      // Allow the pumps to drain
-      long start = System.currentTimeMillis();
       HttpResponse response = client.execute(request, true);
-      thread.join();
-      long duration = System.currentTimeMillis() - start;
-      if (!exception.isEmpty()) {
-        throw exception.iterator().next();
-      }
 
-      Map<String, Object> parsed = Json.TO_MAP.apply(response.getContentString());
+      Map<String, Object> parsed = decode(response);
 
       Map.Entry<Dialect, Response> result =
           Stream.of(new W3CResponseConverter(), new OssResponseConverter())
@@ -146,14 +175,109 @@ public class NewSessionRequest {
               .orElseThrow(() -> new SessionNotCreatedException("Unable to create session for " + source));
 
       return new Result(result.getKey(), result.getValue());
-    } catch (InterruptedException e) {
-      Thread.currentThread().interrupt();
-      throw new SessionNotCreatedException("Interrupted when creating new session", e);
     } catch (Throwable e) {
       throw new SessionNotCreatedException(e.getMessage(), e);
     }
   }
 
+  public static CacheStats getPayloadCacheStats() {
+    return ENCODED_PAYLOADS.stats();
+  }
+
+  /**
+   * Pull out the only top level values either dialect cares about straight from the response
+   * stream, skipping over anything else.
+   */
+  private static Map<String, Object> decode(HttpResponse response) throws IOException {
+    Map<String, Object> decoded = new HashMap<>();
+
+    Charset encoding = response.getContentEncoding();
+    InputStream content = response.consumeContentStream();
+    try (JsonInput input = UTF_8.equals(encoding)
+             ? Json.newInput(content, COMPACT)
+             : Json.newInput(new InputStreamReader(content, encoding), COMPACT)) {
+      input.beginObject();
+      while (input.hasNext()) {
+        String name = input.nextName();
+        switch (name) {
+          case "sessionId":
+          case "status":
+          case "value":
+            decoded.put(name, input.read(OBJECT_TYPE));
+            break;
+
+          default:
+            input.skipValue();
+            break;
+        }
+      }
+      input.endObject();
+    }
+
+    return decoded;
+  }
+
+  private byte[] encode() throws IOException {
+    RequestBuffer buffer = BUFFERS.get();
+    try {
+      try (JsonOutput json = Json.newOutput(buffer)) {
+        writeToStream.accept(json);
+      }
+      return buffer.toByteArray();
+    } finally {
+      buffer.release();
+    }
+  }
+
+  /**
+   * Copy the map and everything nested in it, so that the payload can't change after it's been
+   * cached. Values other than maps, collections, strings, numbers and booleans are replaced by
+   * what they look like as JSON, since there's no telling whether they can change.
+   */
+  private static Map<String, Object> snapshot(Map<String, ?> map) {
+    Map<String, Object> copy = new LinkedHashMap<>();
+    map.forEach((key, value) -> copy.put(key, snapshotValue(value)));
+    return Collections.unmodifiableMap(copy);
+  }
+
+  private static Object snapshotValue(Object value) {
+    if (value instanceof Map) {
+      Map<String, Object> copy = new LinkedHashMap<>();
+      ((Map<?, ?>) value).forEach((key, nested) -> copy.put(String.valueOf(key), snapshotValue(nested)));
+      return Collections.unmodifiableMap(copy);
+    }
+    if (value instanceof Collection) {
+      List<Object> copy = new ArrayList<>();
+      ((Collection<?>) value).forEach(nested -> copy.add(snapshotValue(nested)));
+      return Collections.unmodifiableList(copy);
+    }
+    if (value == null || value instanceof String || value instanceof Number || value instanceof Boolean) {
+      return value;
+    }
+    return Json.newInput(new StringReader(Json.TO_JSON.apply(value)), COMPACT).read(OBJECT_TYPE);
+  }
+
+  /**
+   * The http clients read the entire request body into memory anyway, so rather than streaming it
+   * from another thread, we serialise it into a buffer that each thread reuses between requests.
+   */
+  private static class RequestBuffer extends ByteArrayOutputStream {
+    // Don't hang on to the buffers of unusually large requests
+    private static final int MAX_RETAINED_SIZE = 1024 * 1024;
+
+    RequestBuffer() {
+      super(8 * 1024);
+    }
+
+    void release() {
+      if (buf.length > MAX_RETAINED_SIZE) {
+        BUFFERS.remove();
+      } else {
+        reset();
+      }
+    }
+  }
+
   public static class Result {
     private final Dialect dialect;
     private final Response response;
@@ -0,0 +1,69 @@
+package org.infalible.selenium.remote.session;
+
+import com.google.common.collect.Iterators;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * An unmodifiable view of two maps with no keys in common, such as a {@code firstMatch} entry and
+ * the {@code alwaysMatch} capabilities it's merged with. Nothing is copied, so the same base can
+ * be shared by as many overlays as needed. Entries of the base are iterated first.
+ */
+class OverlayMap extends AbstractMap<String, Object> {
+
+  private final Map<String, Object> base;
+  private final Map<String, Object> overlay;
+
+  /**
+   * Neither map may change afterwards, and they must not share any keys.
+   */
+  OverlayMap(Map<String, Object> base, Map<String, Object> overlay) {
+    this.base = Objects.requireNonNull(base, "Base map must be set");
+    this.overlay = Objects.requireNonNull(overlay, "Overlay map must be set");
+  }
+
+  @Override
+  public int size() {
+    return base.size() + overlay.size();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return base.isEmpty() && overlay.isEmpty();
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return overlay.containsKey(key) || base.containsKey(key);
+  }
+
+  @Override
+  public Object get(Object key) {
+    Object value = overlay.get(key);
+    if (value != null || overlay.containsKey(key)) {
+      return value;
+    }
+    return base.get(key);
+  }
+
+  @Override
+  public Set<Entry<String, Object>> entrySet() {
+    return new AbstractSet<Entry<String, Object>>() {
+      @Override
+      public Iterator<Entry<String, Object>> iterator() {
+        return Iterators.unmodifiableIterator(
+            Iterators.concat(base.entrySet().iterator(), overlay.entrySet().iterator()));
+      }
+
+      @Override
+      public int size() {
+        return OverlayMap.this.size();
+      }
+    };
+  }
+}
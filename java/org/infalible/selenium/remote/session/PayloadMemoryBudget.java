@@ -0,0 +1,136 @@
+package org.infalible.selenium.remote.session;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The amount of memory that all in-flight {@link NewSessionPayload}s may share between them. Each
+ * payload reserves its length from the budget before being read into memory, and gives it back
+ * when closed. Payloads that can't get a reservation are spilled to disk instead.
+ */
+public class PayloadMemoryBudget {
+
+  // Dedicate up to 10% of max ram to holding payloads
+  private static final PayloadMemoryBudget DEFAULT =
+      new PayloadMemoryBudget(Runtime.getRuntime().maxMemory() / 10, Duration.ZERO);
+
+  private final long capacity;
+  private final long maxWaitNanos;
+
+  private long reserved;
+  private long reservations;
+  private long spills;
+  private long waitNanos;
+
+  /**
+   * @param capacity The number of bytes that may be held in memory across all payloads.
+   * @param maxWait How long to wait for other payloads to release their reservations before
+   *     spilling to disk.
+   */
+  public PayloadMemoryBudget(long capacity, Duration maxWait) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("Capacity must not be negative: " + capacity);
+    }
+    Objects.requireNonNull(maxWait, "Maximum wait time must be set");
+    if (maxWait.isNegative()) {
+      throw new IllegalArgumentException("Maximum wait time must not be negative: " + maxWait);
+    }
+
+    this.capacity = capacity;
+    this.maxWaitNanos = maxWait.toNanos();
+  }
+
+  public static PayloadMemoryBudget getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * @param bytes The length of the payload, or a negative number if that isn't known.
+   * @return A reservation to be closed once the memory is no longer in use, or {@code null} if the
+   *     budget could not accommodate {@code bytes} and the payload should be spilled. Payloads of
+   *     unknown length are always spilled, since there's no telling how much memory they'd need.
+   */
+  synchronized Reservation reserve(long bytes) {
+    if (bytes < 0 || bytes > capacity) {
+      spills++;
+      return null;
+    }
+
+    long start = System.nanoTime();
+    try {
+      while (reserved + bytes > capacity) {
+        long remaining = maxWaitNanos - (System.nanoTime() - start);
+        if (remaining <= 0) {
+          spills++;
+          return null;
+        }
+        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      spills++;
+      return null;
+    } finally {
+      waitNanos += System.nanoTime() - start;
+    }
+
+    reserved += bytes;
+    reservations++;
+    return new Reservation(bytes);
+  }
+
+  private synchronized void release(long bytes) {
+    reserved -= bytes;
+    notifyAll();
+  }
+
+  public long getCapacity() {
+    return capacity;
+  }
+
+  public synchronized long getReservedBytes() {
+    return reserved;
+  }
+
+  public synchronized long getReservationCount() {
+    return reservations;
+  }
+
+  public synchronized long getSpillCount() {
+    return spills;
+  }
+
+  public synchronized Duration getTotalWaitTime() {
+    return Duration.ofNanos(waitNanos);
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(
+        "PayloadMemoryBudget(reserved %d of %d bytes, %d reservations, %d spills, waited %s)",
+        reserved,
+        capacity,
+        reservations,
+        spills,
+        Duration.ofNanos(waitNanos));
+  }
+
+  class Reservation implements Closeable {
+    private final long bytes;
+    private final AtomicBoolean released = new AtomicBoolean(false);
+
+    private Reservation(long bytes) {
+      this.bytes = bytes;
+    }
+
+    @Override
+    public void close() {
+      if (released.compareAndSet(false, true)) {
+        release(bytes);
+      }
+    }
+  }
+}
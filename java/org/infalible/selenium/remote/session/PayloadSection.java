@@ -1,11 +1,23 @@
 package org.infalible.selenium.remote.session;
 
+import org.infalible.selenium.json.CanonicalJson;
+import org.infalible.selenium.json.Fingerprint;
+
 import java.util.Map;
 import java.util.Objects;
 
+/**
+ * One set of capabilities from a payload, along with the payload's metadata. The capabilities may
+ * not change once the section has been created, since its hash code and fingerprint are worked out
+ * from them only once. Neither they nor equality include the metadata: that's shared by every
+ * section of the payload, and reading all of it would mean reading the rest of a streamed payload.
+ */
 class PayloadSection {
   private final Map<String, Object> capabilities;
   private final Map<String, Object> metadata;
+  // Both are computed on first use. Racing threads will just compute the same value.
+  private int hashCode;
+  private volatile Fingerprint fingerprint;
 
   public PayloadSection(Map<String, Object> capabilities, Map<String, Object> metadata) {
 
@@ -21,17 +33,35 @@ class PayloadSection {
     return metadata;
   }
 
+  /**
+   * @return A digest of the section's capabilities, which is the same for any section with the same
+   *     capabilities. This is cheap to compare, so it suits deduplicating the sections of a payload
+   *     and caching decisions made about them.
+   */
+  public Fingerprint getFingerprint() {
+    Fingerprint result = fingerprint;
+    if (result == null) {
+      result = CanonicalJson.fingerprint(capabilities);
+      fingerprint = result;
+    }
+    return result;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
     if (!(o instanceof PayloadSection)) return false;
     PayloadSection that = (PayloadSection) o;
-    return Objects.equals(getCapabilities(), that.getCapabilities()) &&
-        Objects.equals(getMetadata(), that.getMetadata());
+    return capabilities.equals(that.capabilities);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(getCapabilities(), getMetadata());
+    int result = hashCode;
+    if (result == 0) {
+      result = capabilities.hashCode();
+      hashCode = result;
+    }
+    return result;
   }
 }
@@ -11,8 +11,14 @@ abstract class PayloadView {
 
   abstract Entry getMetadata(String key);
 
-  boolean containsKey(String key) {
-    return getKeys().anyMatch(key::equals);
+  abstract boolean containsKey(String key);
+
+  /**
+   * @return {@code false} if {@code key} is already known not to be at the top level of the
+   *     payload, which is worked out without reading any more of it.
+   */
+  boolean mayContainKey(String key) {
+    return true;
   }
 
   abstract Map<String,Object> getAlwaysMatch();
@@ -0,0 +1,514 @@
+package org.infalible.selenium.remote.session;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import org.openqa.selenium.SessionNotCreatedException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * A fixed number of files in a single directory that payloads too large to hold in memory are
+ * spilled to. Rather than creating and deleting a file for every payload, files are handed out
+ * from the pool, truncated when they're given back, and reused. If every file is in use, payloads
+ * wait for one to be returned, and if none is they spill to a file of their own instead, which is
+ * deleted when they're done with it.
+ *
+ * <p>A payload that is never closed still returns its file once it has been garbage collected.
+ * Spill files left behind in the directory by an earlier process are cleared when the pool is
+ * created, so the directory must not be shared with another pool.
+ *
+ * <p>The size of the default pool and how long it waits for a file can be set with the
+ * {@value #SIZE_PROPERTY} and {@value #MAX_WAIT_PROPERTY} (in milliseconds) system properties.
+ */
+public class SpillFilePool implements Closeable {
+
+  public static final String SIZE_PROPERTY = "infalible.spill.pool.size";
+  public static final String MAX_WAIT_PROPERTY = "infalible.spill.pool.maxWaitMillis";
+
+  /**
+   * How sections of a payload are written to the spill file. Each section is encoded separately, so
+   * they can still be read back one at a time.
+   */
+  public enum Encoding {
+    /** Plain UTF-8 JSON. */
+    JSON(".json") {
+      @Override
+      OutputStream encode(OutputStream out) {
+        return out;
+      }
+
+      @Override
+      InputStream decode(InputStream in) {
+        return in;
+      }
+    },
+
+    /**
+     * Deflate compressed UTF-8 JSON, which makes the spill files much smaller at the cost of some
+     * CPU time. Payloads are mostly base64 encoded extensions and profiles, which compress well.
+     */
+    DEFLATE(".json.deflate") {
+      @Override
+      OutputStream encode(OutputStream out) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        return new DeflaterOutputStream(out, deflater, 8192) {
+          @Override
+          public void close() throws IOException {
+            try {
+              super.close();
+            } finally {
+              deflater.end();
+            }
+          }
+        };
+      }
+
+      @Override
+      InputStream decode(InputStream in) {
+        return new InflaterInputStream(in);
+      }
+    };
+
+    private final String suffix;
+
+    Encoding(String suffix) {
+      this.suffix = suffix;
+    }
+
+    /**
+     * @return A stream that encodes everything written to it into {@code out}. Closing it finishes
+     *     the encoding, and also closes {@code out}.
+     */
+    abstract OutputStream encode(OutputStream out);
+
+    abstract InputStream decode(InputStream in);
+  }
+
+  private static final String PREFIX = "spill-";
+  private static final String OVERFLOW_PREFIX = PREFIX + "overflow-";
+  // Matches the spill files of every encoding, since an earlier pool may have used another one.
+  private static final String LEFTOVERS = Arrays.stream(Encoding.values())
+      .map(encoding -> encoding.suffix)
+      .collect(Collectors.joining(",", PREFIX + "*{", "}"));
+
+  // Created when first needed, so that nothing touches the disk unless a payload spills.
+  private static final Supplier<SpillFilePool> DEFAULT = Suppliers.memoize(() -> {
+    try {
+      Path directory = Files.createTempDirectory("payloads");
+      directory.toFile().deleteOnExit();
+      SpillFilePool pool = new SpillFilePool(
+          directory,
+          Integer.getInteger(SIZE_PROPERTY, 32),
+          Duration.ofMillis(Long.getLong(MAX_WAIT_PROPERTY, 10_000)));
+      for (Slot slot : pool.slots) {
+        slot.path.toFile().deleteOnExit();
+      }
+      return pool;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  });
+
+  private final Path directory;
+  private final Encoding encoding;
+  private final long maxWaitNanos;
+  private final Slot[] slots;
+  private final Deque<Slot> free = new ArrayDeque<>();
+  // Files made for payloads that found the pool empty. Holding them here lets abandoned leases of
+  // them be reaped, just like the pooled ones.
+  private final Set<Slot> overflow = new HashSet<>();
+  private final ReferenceQueue<Lease> abandoned = new ReferenceQueue<>();
+
+  private boolean closed;
+  private long leases;
+  private long reaped;
+  private long overflowed;
+  private long refused;
+  private long waitNanos;
+  private long bytesSpilled;
+
+  /**
+   * @param directory Where to keep the spill files. This is created if necessary.
+   * @param size The number of spill files, which is the most payloads that can be spilled at once.
+   * @param maxWait How long to wait for a spill file to be returned when they're all in use, before
+   *     using a file outside the pool.
+   */
+  public SpillFilePool(Path directory, int size, Duration maxWait) throws IOException {
+    this(directory, size, maxWait, Encoding.JSON);
+  }
+
+  /**
+   * @param encoding How payloads are written to the spill files.
+   */
+  public SpillFilePool(Path directory, int size, Duration maxWait, Encoding encoding)
+      throws IOException {
+    Objects.requireNonNull(directory, "Directory must be set");
+    if (size < 1) {
+      throw new IllegalArgumentException("Pool must hold at least one file: " + size);
+    }
+    Objects.requireNonNull(maxWait, "Maximum wait time must be set");
+    if (maxWait.isNegative()) {
+      throw new IllegalArgumentException("Maximum wait time must not be negative: " + maxWait);
+    }
+
+    this.encoding = Objects.requireNonNull(encoding, "Encoding must be set");
+    this.directory = Files.createDirectories(directory);
+    this.maxWaitNanos = maxWait.toNanos();
+
+    // Clear out anything left over from before, in case it isn't overwritten below
+    try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(directory, LEFTOVERS)) {
+      for (Path leftover : leftovers) {
+        Files.deleteIfExists(leftover);
+      }
+    }
+
+    this.slots = new Slot[size];
+    try {
+      for (int i = 0; i < size; i++) {
+        slots[i] = new Slot(directory.resolve(PREFIX + i + encoding.suffix));
+        free.add(slots[i]);
+      }
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+  }
+
+  public static SpillFilePool getDefault() {
+    return DEFAULT.get();
+  }
+
+  /**
+   * @return A spill file to be closed once the payload no longer needs it.
+   * @throws SessionNotCreatedException If interrupted while waiting for a file, or no file could be
+   *     created outside the pool.
+   */
+  synchronized Lease acquire() {
+    long start = System.nanoTime();
+    try {
+      reap();
+      while (free.isEmpty()) {
+        if (closed) {
+          throw new IllegalStateException("Spill file pool has been closed");
+        }
+        long remaining = maxWaitNanos - (System.nanoTime() - start);
+        if (remaining <= 0) {
+          return lease(createOverflowSlot());
+        }
+        // Wake up now and again to look for files given up by the garbage collector.
+        TimeUnit.NANOSECONDS.timedWait(this, Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(100)));
+        reap();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      refused++;
+      throw new SessionNotCreatedException("Interrupted while waiting for a spill file", e);
+    } finally {
+      waitNanos += System.nanoTime() - start;
+    }
+
+    if (closed) {
+      throw new IllegalStateException("Spill file pool has been closed");
+    }
+
+    return lease(free.remove());
+  }
+
+  private Slot createOverflowSlot() {
+    try {
+      Slot slot = new Slot(Files.createTempFile(directory, OVERFLOW_PREFIX, encoding.suffix));
+      overflow.add(slot);
+      overflowed++;
+      return slot;
+    } catch (IOException e) {
+      refused++;
+      throw new SessionNotCreatedException(
+          "Unable to spill payload to disk: all " + slots.length
+          + " spill files are in use, and no other file could be created", e);
+    }
+  }
+
+  private Lease lease(Slot slot) {
+    Lease lease = new Lease(slot);
+    slot.leasedBy = new LeaseReference(lease, slot, abandoned);
+    leases++;
+    return lease;
+  }
+
+  private synchronized void release(Slot slot, boolean wasReaped) {
+    slot.leasedBy = null;
+    if (wasReaped) {
+      reaped++;
+    }
+
+    try {
+      bytesSpilled += slot.channel.size();
+      if (overflow.remove(slot)) {
+        slot.channel.close();
+        Files.deleteIfExists(slot.path);
+      } else {
+        slot.channel.truncate(0);
+        free.add(slot);
+      }
+    } catch (ClosedChannelException e) {
+      // The pool has been closed. Nothing to give back.
+    } catch (IOException e) {
+      // Leave the file out of the pool, rather than hand out one in an unknown state
+    }
+    notifyAll();
+  }
+
+  private void reap() {
+    Reference<? extends Lease> ref;
+    while ((ref = abandoned.poll()) != null) {
+      Slot slot = ((LeaseReference) ref).slot;
+      if (slot.leasedBy == ref) {
+        release(slot, true);
+      }
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    closed = true;
+    IOException failure = null;
+    List<Slot> all = new ArrayList<>(Arrays.asList(slots));
+    all.addAll(overflow);
+    overflow.clear();
+    for (Slot slot : all) {
+      if (slot == null) {
+        continue;
+      }
+      try {
+        slot.channel.close();
+        Files.deleteIfExists(slot.path);
+      } catch (IOException e) {
+        failure = failure == null ? e : failure;
+      }
+    }
+    free.clear();
+    notifyAll();
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  public Path getDirectory() {
+    return directory;
+  }
+
+  public Encoding getEncoding() {
+    return encoding;
+  }
+
+  public int getSize() {
+    return slots.length;
+  }
+
+  public synchronized int getInUse() {
+    reap();
+    return closed ? 0 : slots.length - free.size() + overflow.size();
+  }
+
+  public synchronized long getLeaseCount() {
+    return leases;
+  }
+
+  /**
+   * @return How many spill files were given back by the garbage collector, because the payload
+   *     using them was never closed.
+   */
+  public synchronized long getReapedCount() {
+    reap();
+    return reaped;
+  }
+
+  /**
+   * @return How many payloads spilled to a file outside the pool, because every file in it was in
+   *     use.
+   */
+  public synchronized long getOverflowCount() {
+    return overflowed;
+  }
+
+  public synchronized long getRefusedCount() {
+    return refused;
+  }
+
+  public synchronized Duration getTotalWaitTime() {
+    return Duration.ofNanos(waitNanos);
+  }
+
+  /**
+   * @return The number of bytes written to spill files that have since been given back.
+   */
+  public synchronized long getBytesSpilled() {
+    return bytesSpilled;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(
+        "SpillFilePool(%s, %s, %d of %d in use, %d leases, %d reaped, %d overflowed, %d refused, %d bytes spilled, waited %s)",
+        directory,
+        encoding,
+        slots.length - free.size() + overflow.size(),
+        slots.length,
+        leases,
+        reaped,
+        overflowed,
+        refused,
+        bytesSpilled,
+        Duration.ofNanos(waitNanos));
+  }
+
+  private static class Slot {
+    private final Path path;
+    private final FileChannel channel;
+    private LeaseReference leasedBy;
+
+    Slot(Path path) throws IOException {
+      this.path = path;
+      this.channel = FileChannel.open(path, CREATE, READ, WRITE);
+      channel.truncate(0);
+    }
+  }
+
+  private static class LeaseReference extends WeakReference<Lease> {
+    private final Slot slot;
+
+    LeaseReference(Lease lease, Slot slot, ReferenceQueue<Lease> queue) {
+      super(lease, queue);
+      this.slot = slot;
+    }
+  }
+
+  /**
+   * A spill file on loan from the pool. It is written once, from the start, and can then be read
+   * from any number of threads until it is closed.
+   */
+  class Lease implements Closeable {
+    private final Slot slot;
+    private final AtomicBoolean released = new AtomicBoolean(false);
+
+    private Lease(Slot slot) {
+      this.slot = slot;
+    }
+
+    /**
+     * @return A stream that appends to the file. Closing the stream leaves the file open.
+     */
+    OutputStream newOutputStream() {
+      return new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+          write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+          checkNotReleased();
+          ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+          while (buffer.hasRemaining()) {
+            slot.channel.write(buffer);
+          }
+        }
+      };
+    }
+
+    /**
+     * @return A stream of the {@code length} bytes of the file starting at {@code offset}. They are
+     *     read from the file as the stream is read, so a large section is never held in memory.
+     */
+    InputStream newInputStream(long offset, long length) {
+      checkNotReleased();
+      long end = offset + length;
+
+      return new InputStream() {
+        private long position = offset;
+
+        @Override
+        public int read() throws IOException {
+          byte[] single = new byte[1];
+          return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) throws IOException {
+          checkNotReleased();
+          if (position >= end) {
+            return -1;
+          }
+          if (len == 0) {
+            return 0;
+          }
+
+          ByteBuffer buffer = ByteBuffer.wrap(bytes, off, (int) Math.min(len, end - position));
+          int read = slot.channel.read(buffer, position);
+          if (read < 0) {
+            throw new IOException("Spill file is shorter than expected: " + slot.path);
+          }
+          position += read;
+          return read;
+        }
+
+        @Override
+        public long skip(long n) {
+          long skipped = Math.max(0, Math.min(n, end - position));
+          position += skipped;
+          return skipped;
+        }
+
+        @Override
+        public int available() {
+          return (int) Math.min(Integer.MAX_VALUE, end - position);
+        }
+      };
+    }
+
+    private void checkNotReleased() {
+      if (released.get()) {
+        throw new IllegalStateException("Spill file has already been returned to the pool");
+      }
+    }
+
+    @Override
+    public void close() {
+      if (released.compareAndSet(false, true)) {
+        release(slot, false);
+      }
+    }
+  }
+}
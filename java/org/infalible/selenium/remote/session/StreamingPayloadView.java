@@ -0,0 +1,244 @@
+package org.infalible.selenium.remote.session;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.MalformedJsonException;
+import org.infalible.selenium.json.Json;
+import org.infalible.selenium.json.JsonInput;
+import org.openqa.selenium.SessionNotCreatedException;
+import org.openqa.selenium.WebDriverException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static org.infalible.selenium.json.Json.MAP_TYPE;
+import static org.infalible.selenium.json.Json.OBJECT_TYPE;
+import static org.infalible.selenium.json.Json.Representation.COMPACT;
+
+/**
+ * A {@link PayloadView} that reads the payload as it is asked for values, rather than up front. Only
+ * the pieces of the payload that are skipped over to find the value being asked for are buffered, so
+ * {@code firstMatch} entries are handed out one at a time as they are read. The underlying reader can
+ * only be read once, so the first matches can only be streamed once.
+ *
+ * <p>Sections and metadata may be read from different threads, so every read of the payload holds
+ * this view's lock.
+ */
+class StreamingPayloadView extends PayloadView implements Closeable {
+
+  private enum State {
+    TOP_LEVEL,
+    CAPABILITIES,
+    FIRST_MATCH,
+    DONE,
+  }
+
+  private final JsonInput input;
+  private final Set<String> keys = new LinkedHashSet<>();
+  private final Map<String, Object> metadata = new LinkedHashMap<>();
+  private final Deque<Map<String, Object>> pendingFirstMatches = new ArrayDeque<>();
+  private State state = State.TOP_LEVEL;
+  private Map<String, Object> desiredCapabilities;
+  private Map<String, Object> alwaysMatch;
+  private boolean capabilitiesRead;
+  private boolean firstMatchSeen;
+  private boolean firstMatchesStreamed;
+
+  StreamingPayloadView(Reader in) throws IOException {
+    this.input = Json.newInput(in, COMPACT);
+    input.beginObject();
+  }
+
+  @Override
+  synchronized Stream<String> getKeys() {
+    readUntil(() -> false);
+    return keys.stream();
+  }
+
+  @Override
+  synchronized boolean containsKey(String key) {
+    readUntil(() -> keys.contains(key));
+    return keys.contains(key);
+  }
+
+  @Override
+  synchronized boolean mayContainKey(String key) {
+    return state != State.DONE || keys.contains(key);
+  }
+
+  /**
+   * @return whichever of the {@code candidates} appears first in the payload, or {@code null} if none
+   *     of them do.
+   */
+  synchronized String firstKeyOf(String... candidates) {
+    readUntil(() -> Arrays.stream(candidates).anyMatch(keys::contains));
+    return keys.stream()
+        .filter(key -> Arrays.asList(candidates).contains(key))
+        .findFirst()
+        .orElse(null);
+  }
+
+  @Override
+  synchronized Entry getMetadata(String key) {
+    readUntil(() -> metadata.containsKey(key));
+    if (!metadata.containsKey(key)) {
+      return null;
+    }
+    return new Entry(key, metadata.get(key));
+  }
+
+  @Override
+  synchronized Map<String, Object> getAlwaysMatch() {
+    readUntil(() -> alwaysMatch != null || capabilitiesRead);
+    return alwaysMatch == null ? ImmutableMap.of() : alwaysMatch;
+  }
+
+  @Override
+  synchronized Stream<Map<String, Object>> getFirstMatches() {
+    if (firstMatchesStreamed) {
+      throw new IllegalStateException("First matches of a streamed payload may only be read once");
+    }
+    firstMatchesStreamed = true;
+
+    readUntil(() -> firstMatchSeen || capabilitiesRead);
+    if (!firstMatchSeen) {
+      return Stream.of(ImmutableMap.of());
+    }
+
+    Spliterator<Map<String, Object>> spliterator =
+        new Spliterators.AbstractSpliterator<Map<String, Object>>(
+            Long.MAX_VALUE,
+            Spliterator.ORDERED | Spliterator.NONNULL) {
+          private boolean empty = true;
+
+          @Override
+          public boolean tryAdvance(Consumer<? super Map<String, Object>> action) {
+            Map<String, Object> next;
+            synchronized (StreamingPayloadView.this) {
+              readUntil(() -> !pendingFirstMatches.isEmpty() || state != State.FIRST_MATCH);
+              next = pendingFirstMatches.poll();
+            }
+            if (next == null) {
+              if (empty) {
+                throw new SessionNotCreatedException("Expected firstMatch to have at least one value");
+              }
+              return false;
+            }
+            empty = false;
+            action.accept(next);
+            return true;
+          }
+        };
+
+    return StreamSupport.stream(spliterator, false);
+  }
+
+  @Override
+  synchronized Map<String, Object> getDesiredCapabilities() {
+    readUntil(() -> desiredCapabilities != null);
+    return desiredCapabilities;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    input.close();
+  }
+
+  private void readUntil(BooleanSupplier condition) {
+    try {
+      while (!condition.getAsBoolean() && state != State.DONE) {
+        advance();
+      }
+    } catch (MalformedJsonException | JsonParseException | IllegalStateException e) {
+      // Gson reports values of the wrong type as illegal states. Fail as the in-memory view would.
+      throw new SessionNotCreatedException("Unable to parse payload: " + e.getMessage(), e);
+    } catch (IOException e) {
+      throw new WebDriverException(e);
+    }
+  }
+
+  private void advance() throws IOException {
+    switch (state) {
+      case TOP_LEVEL:
+        if (!input.hasNext()) {
+          input.endObject();
+          state = State.DONE;
+          return;
+        }
+
+        String name = input.nextName();
+        keys.add(name);
+        switch (name) {
+          case "desiredCapabilities":
+            desiredCapabilities = coerceToMap(input.read(MAP_TYPE));
+            break;
+
+          case "capabilities":
+            input.beginObject();
+            state = State.CAPABILITIES;
+            break;
+
+          case "requiredCapabilities":
+            // Older selenium versions sent this. We Don't care about it.
+            input.skipValue();
+            break;
+
+          default:
+            metadata.put(name, input.read(OBJECT_TYPE));
+            break;
+        }
+        break;
+
+      case CAPABILITIES:
+        if (!input.hasNext()) {
+          input.endObject();
+          capabilitiesRead = true;
+          state = State.TOP_LEVEL;
+          return;
+        }
+
+        switch (input.nextName()) {
+          case "alwaysMatch":
+            alwaysMatch = coerceToMap(input.read(MAP_TYPE));
+            break;
+
+          case "firstMatch":
+            firstMatchSeen = true;
+            input.beginArray();
+            state = State.FIRST_MATCH;
+            break;
+
+          default:
+            input.skipValue();
+            break;
+        }
+        break;
+
+      case FIRST_MATCH:
+        if (!input.hasNext()) {
+          input.endArray();
+          state = State.CAPABILITIES;
+          return;
+        }
+        pendingFirstMatches.add(coerceToMap(input.read(MAP_TYPE)));
+        break;
+
+      case DONE:
+        break;
+    }
+  }
+}
@@ -3,10 +3,14 @@ package org.infalible.selenium.remote.session;
 import com.google.common.collect.ImmutableSet;
 import org.openqa.selenium.Proxy;
 
+import java.util.Arrays;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Predicate;
 
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+
 class Validators {
   private final static Set<String> PAGE_LOADING_STRATEGIES = ImmutableSet.of(
     "eager",
@@ -22,17 +26,75 @@ class Validators {
       "implicit",
       "pageLoad",
       "script");
+  private final static Set<String> PROXY_TYPES = Arrays.stream(Proxy.ProxyType.values())
+      .map(Proxy.ProxyType::name)
+      .collect(toImmutableSet());
+  private final static Set<String> MANUAL_PROXY_SETTINGS = ImmutableSet.of(
+      "ftpProxy",
+      "httpProxy",
+      "noProxy",
+      "sslProxy",
+      "socksProxy",
+      "socksUsername",
+      "socksPassword");
 
   static final Predicate<Object> IS_BOOLEAN = obj -> obj instanceof Boolean;
   static final Predicate<Object> IS_PAGE_LOADING_STRATEGY = PAGE_LOADING_STRATEGIES::contains;
-  @SuppressWarnings("unchecked")
+  /**
+   * Accepts anything that {@link Proxy#Proxy(Map)} would, without needing to build one.
+   */
   static final Predicate<Object> IS_PROXY = obj -> {
-    try {
-      new Proxy((Map<String, ?>) obj);
-      return true;
-    } catch (Exception e) {
+    if (!(obj instanceof Map)) {
       return false;
     }
+    Map<?, ?> raw = (Map<?, ?>) obj;
+
+    // The Proxy will complain if asked to use settings that don't fit the type of proxy it already is
+    String type = "UNSPECIFIED";
+
+    Object proxyType = raw.get("proxyType");
+    if (proxyType != null) {
+      if (!(proxyType instanceof String)) {
+        return false;
+      }
+      type = ((String) proxyType).toUpperCase(Locale.ENGLISH);
+      if (!PROXY_TYPES.contains(type)) {
+        return false;
+      }
+    }
+
+    for (String key : MANUAL_PROXY_SETTINGS) {
+      Object value = raw.get(key);
+      if (value == null) {
+        continue;
+      }
+      if (!(value instanceof String) || !isCompatible(type, "MANUAL")) {
+        return false;
+      }
+      type = "MANUAL";
+    }
+
+    Object socksVersion = raw.get("socksVersion");
+    if (socksVersion != null) {
+      if (!(socksVersion instanceof Number) || !isCompatible(type, "MANUAL")) {
+        return false;
+      }
+      type = "MANUAL";
+    }
+
+    Object pac = raw.get("proxyAutoconfigUrl");
+    if (pac != null) {
+      if (!(pac instanceof String) || !isCompatible(type, "PAC")) {
+        return false;
+      }
+      type = "PAC";
+    }
+
+    Object autodetect = raw.get("autodetect");
+    if (autodetect != null) {
+      return autodetect instanceof Boolean && (!(Boolean) autodetect || isCompatible(type, "AUTODETECT"));
+    }
+    return true;
   };
   static final Predicate<Object> IS_STRING = obj -> obj instanceof String;
   static final Predicate<Object> IS_TIMEOUT = obj -> {
@@ -43,11 +105,15 @@ class Validators {
       if (!TIMEOUT_TYPES.contains(entry.getKey())) {
         return false;
       }
-      if (!(entry instanceof Number)) {
+      if (!(entry.getValue() instanceof Number)) {
         return false;
       }
     }
     return true;
   };
   static final Predicate<Object> IS_UNHANDLED_PROMPT_BEHAVIOR = UNHANDLED_PROMPT_BEHAVIORS::contains;
+
+  private static boolean isCompatible(String currentType, String requiredType) {
+    return "UNSPECIFIED".equals(currentType) || requiredType.equals(currentType);
+  }
 }
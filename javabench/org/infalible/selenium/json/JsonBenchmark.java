@@ -0,0 +1,71 @@
+package org.infalible.selenium.json;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.infalible.selenium.json.Json.Representation.COMPACT;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class JsonBenchmark {
+
+  private static final Function<String, Map<String, Object>> TO_COMPACT_MAP = Json.toMap(COMPACT);
+
+  @Param({"1", "10", "100"})
+  public int entryCount;
+
+  private Map<String, Object> map;
+  private String json;
+
+  @Setup
+  public void createPayload() {
+    ImmutableList.Builder<Object> entries = ImmutableList.builder();
+    for (int i = 0; i < entryCount; i++) {
+      // Roughly what a single firstMatch entry looks like
+      entries.add(ImmutableMap.of(
+          "browserName", "firefox",
+          "platformName", "linux",
+          "acceptInsecureCerts", true,
+          "timeouts", ImmutableMap.of("implicit", 0, "pageLoad", 300000, "script", 30000),
+          "moz:firefoxOptions", ImmutableMap.of(
+              "args", ImmutableList.of("-headless"),
+              "prefs", ImmutableMap.of("dom.ipc.processCount", 8, "index", i))));
+    }
+    map = ImmutableMap.of("capabilities", ImmutableMap.of("firstMatch", entries.build()));
+    json = Json.TO_JSON.apply(map);
+  }
+
+  @Benchmark
+  public Map<String, Object> toMap() {
+    return Json.TO_MAP.apply(json);
+  }
+
+  @Benchmark
+  public Map<String, Object> toCompactMap() {
+    return TO_COMPACT_MAP.apply(json);
+  }
+
+  @Benchmark
+  public String toJson() {
+    return Json.TO_JSON.apply(map);
+  }
+}
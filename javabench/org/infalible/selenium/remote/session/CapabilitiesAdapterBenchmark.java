@@ -0,0 +1,133 @@
+package org.infalible.selenium.remote.session;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Measures converting a Json Wire Protocol payload into W3C capabilities, as happens once per new
+ * session request, with the built in adapters and with copies of the parallel stream adapters they
+ * replaced. The old adapters fork into the common fork join pool on every call, so run with
+ * {@code -t} to see how each behaves when many requests arrive at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CapabilitiesAdapterBenchmark {
+
+  // The size of a typical Json Wire Protocol payload, and of one with many browser options
+  @Param({"5", "30"})
+  public int capabilityCount;
+
+  private Map<String, Object> caps;
+  private JwpToW3CCapabilitiesAdapter builtIn;
+  private JwpToW3CCapabilitiesAdapter parallelStreams;
+
+  @Setup
+  public void createCapabilities() {
+    Map<String, Object> caps = new LinkedHashMap<>(Payloads.jsonWireProtocol(3, 0));
+    for (int i = caps.size(); i < capabilityCount; i++) {
+      caps.put("cheese:option" + i, i);
+    }
+    this.caps = ImmutableMap.copyOf(caps);
+
+    builtIn = new JwpToW3CCapabilitiesAdapter();
+    parallelStreams = new JwpToW3CCapabilitiesAdapter(ParallelStreamAdapter.ALL);
+  }
+
+  @Benchmark
+  public void builtInAdapters(Blackhole bh) {
+    builtIn.apply(caps).forEach(bh::consume);
+  }
+
+  @Benchmark
+  public void parallelStreamAdapters(Blackhole bh) {
+    parallelStreams.apply(caps).forEach(bh::consume);
+  }
+
+  /**
+   * How the built in adapters used to pick out their capabilities. Since these don't declare what
+   * they're looking for, each is applied to the whole payload.
+   */
+  private static class ParallelStreamAdapter implements CapabilitiesAdapter {
+
+    private static final Set<String> IE_KEYS = ImmutableSet.of(
+        "browserAttachTimeout",
+        "enableElementCacheCleanup",
+        "enablePersistentHover",
+        "extractPath",
+        "host",
+        "ignoreZoomSetting",
+        "initialBrowserZoom",
+        "logFile",
+        "logLevel",
+        "requireWindowFocus",
+        "se:ieOptions",
+        "silent");
+
+    static final List<CapabilitiesAdapter> ALL = ImmutableList.of(
+        new ParallelStreamAdapter(entry ->
+            isBrowser(entry, "chrome")
+                || entry.getKey().startsWith("goog:")
+                || "chromeOptions".equals(entry.getKey())),
+        new ParallelStreamAdapter(entry -> isBrowser(entry, "edge")),
+        new ParallelStreamAdapter(entry ->
+            isBrowser(entry, "firefox")
+                || entry.getKey().startsWith("firefox_")
+                || entry.getKey().startsWith("moz:")),
+        new ParallelStreamAdapter(entry ->
+            isBrowser(entry, "internet explorer")
+                || IE_KEYS.contains(entry.getKey())
+                || entry.getKey().startsWith("ie.")),
+        new ParallelStreamAdapter(entry ->
+            isBrowser(entry, "opera")
+                || isBrowser(entry, "operablink")
+                || "operaOptions".equals(entry.getKey())),
+        new ParallelStreamAdapter(entry ->
+            isBrowser(entry, "safari") || "safari.options".equals(entry.getKey())));
+
+    private final Predicate<Map.Entry<String, Object>> belongs;
+
+    private ParallelStreamAdapter(Predicate<Map.Entry<String, Object>> belongs) {
+      this.belongs = belongs;
+    }
+
+    private static boolean isBrowser(Map.Entry<String, Object> entry, String browserName) {
+      return "browserName".equals(entry.getKey()) && browserName.equals(entry.getValue());
+    }
+
+    @Override
+    public Map<String, Object> apply(Map<String, Object> unmodifiedCaps) {
+      ImmutableMap<String, Object> caps = unmodifiedCaps.entrySet().parallelStream()
+          .filter(belongs)
+          .filter(entry -> Objects.nonNull(entry.getValue()))
+          .distinct()
+          .collect(ImmutableMap.toImmutableMap(Map.Entry::getKey, Map.Entry::getValue));
+
+      return caps.isEmpty() ? null : caps;
+    }
+  }
+}
@@ -0,0 +1,51 @@
+package org.infalible.selenium.remote.session;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class JwpToW3CCapabilitiesAdapterBenchmark {
+
+  @Param({"1", "10", "100"})
+  public int firstMatchCount;
+
+  @Param({"0", "65536"})
+  public int extensionSize;
+
+  private Map<String, Object> caps;
+  private JwpToW3CCapabilitiesAdapter adapter;
+
+  @Setup
+  public void createCapabilities() {
+    caps = Payloads.jsonWireProtocol(firstMatchCount, extensionSize);
+    adapter = new JwpToW3CCapabilitiesAdapter();
+  }
+
+  @Benchmark
+  public void apply(Blackhole bh) {
+    adapter.apply(caps).forEach(bh::consume);
+  }
+
+  @Benchmark
+  public void createAndApply(Blackhole bh) {
+    new JwpToW3CCapabilitiesAdapter().apply(caps).forEach(bh::consume);
+  }
+}
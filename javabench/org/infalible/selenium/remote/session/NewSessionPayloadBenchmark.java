@@ -0,0 +1,82 @@
+package org.infalible.selenium.remote.session;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class NewSessionPayloadBenchmark {
+
+  @Param({"1", "10", "100"})
+  public int firstMatchCount;
+
+  @Param({"0", "65536", "1048576"})
+  public int extensionSize;
+
+  private String json;
+  private PayloadMemoryBudget inMemory;
+  private PayloadMemoryBudget onDisk;
+
+  @Setup
+  public void createPayload() {
+    json = Payloads.json(Payloads.w3c(firstMatchCount, extensionSize));
+
+    // Large enough that nothing ever spills, and so small that everything does.
+    inMemory = new PayloadMemoryBudget(Long.MAX_VALUE, Duration.ZERO);
+    onDisk = new PayloadMemoryBudget(0, Duration.ZERO);
+  }
+
+  @Benchmark
+  public void constructInMemory(Blackhole bh) throws IOException {
+    try (NewSessionPayload payload = new NewSessionPayload(new StringReader(json), json.length(), inMemory)) {
+      bh.consume(payload);
+    }
+  }
+
+  @Benchmark
+  public void constructOnDisk(Blackhole bh) throws IOException {
+    try (NewSessionPayload payload = new NewSessionPayload(new StringReader(json), json.length(), onDisk)) {
+      bh.consume(payload);
+    }
+  }
+
+  @Benchmark
+  public void streamInMemory(Blackhole bh) throws IOException {
+    try (NewSessionPayload payload = new NewSessionPayload(new StringReader(json), json.length(), inMemory)) {
+      payload.stream().forEach(bh::consume);
+    }
+  }
+
+  @Benchmark
+  public void streamOnDisk(Blackhole bh) throws IOException {
+    try (NewSessionPayload payload = new NewSessionPayload(new StringReader(json), json.length(), onDisk)) {
+      payload.stream().forEach(bh::consume);
+    }
+  }
+
+  @Benchmark
+  public void streamAsRead(Blackhole bh) throws IOException {
+    try (NewSessionPayload payload = NewSessionPayload.fromStream(new StringReader(json))) {
+      payload.stream().forEach(bh::consume);
+    }
+  }
+}
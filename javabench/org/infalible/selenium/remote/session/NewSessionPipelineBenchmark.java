@@ -0,0 +1,100 @@
+package org.infalible.selenium.remote.session;
+
+import com.google.common.collect.ImmutableSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class NewSessionPipelineBenchmark {
+
+  @Param({"1", "10", "100"})
+  public int firstMatchCount;
+
+  @Param({"6", "60"})
+  public int matcherCount;
+
+  private String json;
+  private PayloadMemoryBudget budget;
+  private NewSessionPipeline pipeline;
+
+  @Setup
+  public void createPipeline() {
+    json = Payloads.json(Payloads.w3c(firstMatchCount, 0));
+    budget = new PayloadMemoryBudget(Long.MAX_VALUE, Duration.ZERO);
+
+    // Only the last firstMatch entry will start a session, so every other one gets matched first.
+    NewSessionPipeline.Builder builder = NewSessionPipeline.builder();
+    for (int i = 0; i < matcherCount; i++) {
+      builder.match(new SyntheticMatcher(Payloads.BROWSERS[i % Payloads.BROWSERS.length], firstMatchCount - 1));
+    }
+    pipeline = builder.build();
+  }
+
+  @Benchmark
+  public ActiveSession newSession() throws IOException {
+    try (NewSessionPayload payload = new NewSessionPayload(new StringReader(json), json.length(), budget)) {
+      return pipeline.newSession(payload);
+    }
+  }
+
+  @Benchmark
+  public ActiveSession newSessionAsRead() throws IOException {
+    try (NewSessionPayload payload = NewSessionPayload.fromStream(new StringReader(json))) {
+      return pipeline.newSession(payload);
+    }
+  }
+
+  private static class SyntheticMatcher implements CapabilityMatcher {
+    private static final ActiveSession SESSION = new ActiveSession() {};
+
+    private final String browserName;
+    private final int startable;
+
+    SyntheticMatcher(String browserName, int startable) {
+      this.browserName = browserName;
+      this.startable = startable;
+    }
+
+    @Override
+    public Supplier<ActiveSession> match(Map<String, Object> capabilities, Map<String, Object> metaInfo) {
+      if (!browserName.equals(capabilities.get("browserName"))) {
+        return null;
+      }
+      Object index = capabilities.get("cheese:index");
+      boolean starts = index instanceof Number && ((Number) index).intValue() == startable;
+      return () -> {
+        if (!starts) {
+          throw new IllegalStateException("Unable to start " + browserName);
+        }
+        return SESSION;
+      };
+    }
+
+    @Override
+    public Set<String> getBrowserNames() {
+      return ImmutableSet.of(browserName);
+    }
+  }
+}
@@ -0,0 +1,87 @@
+package org.infalible.selenium.remote.session;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.infalible.selenium.json.Json.TO_JSON;
+
+/**
+ * Builds the synthetic new session payloads shared by the benchmarks. The same parameters always
+ * produce the same payload, so runs can be compared with each other.
+ */
+class Payloads {
+
+  static final String[] BROWSERS = {"chrome", "edge", "firefox", "internet explorer", "opera", "safari"};
+
+  private Payloads() {
+    // Utility class
+  }
+
+  /**
+   * @param firstMatchCount How many entries there should be in the {@code firstMatch} array.
+   * @param extensionSize The number of bytes of (base64 encoded) random data to add to
+   *     {@code alwaysMatch} as an extension capability, which is how browser extensions and
+   *     profiles are usually sent.
+   */
+  static Map<String, Object> w3c(int firstMatchCount, int extensionSize) {
+    Map<String, Object> always = new LinkedHashMap<>();
+    always.put("acceptInsecureCerts", true);
+    always.put("pageLoadStrategy", "normal");
+    if (extensionSize > 0) {
+      always.put("cheese:extension", blob(extensionSize));
+    }
+
+    ImmutableList.Builder<Map<String, Object>> firstMatches = ImmutableList.builder();
+    for (int i = 0; i < firstMatchCount; i++) {
+      firstMatches.add(ImmutableMap.of(
+          "browserName", BROWSERS[i % BROWSERS.length],
+          "cheese:index", i));
+    }
+
+    return ImmutableMap.of(
+        "cloud:user", "bob",
+        "capabilities", ImmutableMap.of(
+            "alwaysMatch", always,
+            "firstMatch", firstMatches.build()));
+  }
+
+  /**
+   * A JSON Wire Protocol payload of about the same size as {@link #w3c(int, int)}, with
+   * {@code firstMatchCount} browser specific options.
+   */
+  static Map<String, Object> jsonWireProtocol(int firstMatchCount, int extensionSize) {
+    Map<String, Object> caps = new LinkedHashMap<>();
+    caps.put("browserName", BROWSERS[0]);
+    caps.put("platform", "ANY");
+    caps.put("acceptInsecureCerts", true);
+    if (firstMatchCount > 1) {
+      caps.put("chromeOptions", ImmutableMap.of("args", ImmutableList.of("--headless")));
+      caps.put("firefox_profile", extensionSize > 0 ? blob(extensionSize) : "");
+    }
+    if (firstMatchCount > 2) {
+      caps.put("se:ieOptions", ImmutableMap.of("ignoreZoomSetting", true));
+      caps.put("operaOptions", ImmutableMap.of());
+      caps.put("safari.options", ImmutableMap.of());
+    }
+    for (int i = 0; i < firstMatchCount; i++) {
+      caps.put("cheese:option" + i, i);
+    }
+    return caps;
+  }
+
+  static String json(Map<String, Object> payload) {
+    return TO_JSON.apply(payload);
+  }
+
+  private static String blob(int size) {
+    // Base64 makes three bytes into four characters
+    byte[] bytes = new byte[size * 3 / 4];
+    new Random(size).nextBytes(bytes);
+    return Base64.getEncoder().encodeToString(bytes);
+  }
+}
@@ -0,0 +1,8 @@
+package org.infalible.selenium.json;
+
+import org.infalible.testing.junit.ClasspathTestSuiteRunner;
+import org.junit.runner.RunWith;
+
+@RunWith(ClasspathTestSuiteRunner.class)
+public class AllTests {
+}
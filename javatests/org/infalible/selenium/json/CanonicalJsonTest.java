@@ -0,0 +1,98 @@
+package org.infalible.selenium.json;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class CanonicalJsonTest {
+
+  @Test
+  public void shouldSortMembersAndNormaliseNumbers() {
+    Map<String, Object> map = new LinkedHashMap<>();
+    map.put("zebra", ImmutableMap.of("b", 1.0, "a", -0.0));
+    map.put("aardvark", Arrays.asList(1, 2L, 2.5f, 1e20, new BigDecimal("0.0000001"), null));
+    map.put("moose", "caf\u00e9 \"quoted\"");
+
+    assertEquals(
+        "{\"aardvark\":[1,2,2.5,1E+20,1E-7,null],\"moose\":\"caf\u00e9 \\\"quoted\\\"\",\"zebra\":{\"a\":0,\"b\":1}}",
+        CanonicalJson.toJson(map));
+  }
+
+  @Test
+  public void equalValuesShouldHaveTheSameFingerprintHoweverTheyWereBuilt() {
+    Map<String, Object> read = Json.toMap(Json.Representation.COMPACT)
+        .apply("{\"timeouts\": {\"script\": 30000.0}, \"browserName\": \"cheese\"}");
+    Map<String, Object> built = ImmutableMap.of(
+        "browserName", "cheese",
+        "timeouts", ImmutableMap.of("script", 30000));
+
+    assertEquals(CanonicalJson.fingerprint(built), CanonicalJson.fingerprint(read));
+    assertEquals(
+        CanonicalJson.fingerprint(built).toString(),
+        CanonicalJson.fingerprint(read).toString());
+    assertNotEquals(
+        CanonicalJson.fingerprint(built),
+        CanonicalJson.fingerprint(ImmutableMap.of("browserName", "peas")));
+    assertNotEquals(
+        CanonicalJson.fingerprint(ImmutableList.of("ab")),
+        CanonicalJson.fingerprint(ImmutableList.of("a", "b")));
+  }
+
+  @Test
+  public void collectionsWithoutAnOrderShouldBeSorted() {
+    Set<Object> set = new LinkedHashSet<>(Arrays.asList("peas", 2, ImmutableMap.of("a", 1), "cheese"));
+    Set<Object> reversed = new LinkedHashSet<>(Lists.reverse(ImmutableList.copyOf(set)));
+
+    assertEquals("[\"cheese\",\"peas\",2,{\"a\":1}]", CanonicalJson.toJson(set));
+    assertEquals(CanonicalJson.fingerprint(set), CanonicalJson.fingerprint(reversed));
+
+    // Lists keep their order
+    assertEquals("[\"peas\",\"cheese\"]", CanonicalJson.toJson(ImmutableList.of("peas", "cheese")));
+  }
+
+  @Test
+  public void equalNumbersShouldBeWrittenTheSameWhateverTheirType() {
+    // Past 2^53, not every long can be held in a double, but those that can are still equal
+    assertSameJson(1L << 60, (double) (1L << 60));
+    assertSameJson(Long.MAX_VALUE, new BigInteger(String.valueOf(Long.MAX_VALUE)));
+    assertSameJson(new BigInteger("1180591620717411303424"), 0x1p70);
+    assertSameJson(new BigInteger("100000000000000000000"), new BigDecimal("1E+20"));
+    assertSameJson(new BigDecimal("2.50"), 2.5);
+    assertSameJson(new BigDecimal("42.000"), 42);
+
+    assertEquals("9223372036854775808", CanonicalJson.toJson(0x1p63));
+  }
+
+  @Test
+  public void bigNumbersShouldKeepEveryDigit() {
+    assertNotEquals(
+        CanonicalJson.fingerprint(new BigInteger("1180591620717411303424")),
+        CanonicalJson.fingerprint(new BigInteger("1180591620717411303425")));
+    assertNotEquals(
+        CanonicalJson.fingerprint(new BigDecimal("1.00000000000000000001")),
+        CanonicalJson.fingerprint(new BigDecimal("1.00000000000000000002")));
+    assertEquals("1.00000000000000000001", CanonicalJson.toJson(new BigDecimal("1.00000000000000000001")));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectNumbersThatJsonCannotRepresent() {
+    CanonicalJson.fingerprint(ImmutableMap.of("cheese", Double.NaN));
+  }
+
+  private static void assertSameJson(Object expected, Object actual) {
+    assertEquals(CanonicalJson.toJson(expected), CanonicalJson.toJson(actual));
+    assertEquals(CanonicalJson.fingerprint(expected), CanonicalJson.fingerprint(actual));
+  }
+}
@@ -0,0 +1,252 @@
+package org.infalible.selenium.json;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.io.CharStreams;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.infalible.selenium.json.Json.MAP_TYPE;
+import static org.infalible.selenium.json.Json.OBJECT_TYPE;
+import static org.infalible.selenium.json.Json.Representation.COMPACT;
+import static org.infalible.selenium.json.Json.TO_JSON;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JsonTest {
+
+  @Test
+  public void compactMapsShouldKeepTheOrderOfTheirKeys() {
+    Map<String, Object> map = Json.toMap(COMPACT).apply("{\"zebra\": 1, \"aardvark\": 2, \"moose\": 3}");
+
+    assertEquals(ImmutableList.of("zebra", "aardvark", "moose"), ImmutableList.copyOf(map.keySet()));
+    assertEquals(ImmutableMap.of("aardvark", 2L, "moose", 3L, "zebra", 1L), map);
+  }
+
+  @Test
+  public void compactAndSortedMapsShouldBeEqualWhenNested() {
+    String json = "{\"browserName\": \"cheese\", \"nested\": {\"list\": [1, 2.5, {\"a\": true}]}}";
+
+    Map<String, Object> compact = Json.toMap(COMPACT).apply(json);
+
+    assertEquals(
+        ImmutableMap.of(
+            "browserName", "cheese",
+            "nested", ImmutableMap.of("list", ImmutableList.of(1L, 2.5, ImmutableMap.of("a", true)))),
+        compact);
+    assertTrue(((Map<?, ?>) compact.get("nested")).get("list") instanceof List);
+  }
+
+  @Test
+  public void largeCompactObjectsShouldStillBeReadCorrectly() {
+    ImmutableMap.Builder<String, Object> builder = ImmutableMap.builder();
+    for (int i = 0; i < CompactMap.MAX_SIZE * 2; i++) {
+      builder.put("key" + i, "value" + i);
+    }
+    ImmutableMap<String, Object> expected = builder.build();
+
+    Map<String, Object> seen = Json.toMap(COMPACT).apply(TO_JSON.apply(expected));
+
+    assertEquals(expected, seen);
+    assertEquals(expected.keySet().asList(), ImmutableList.copyOf(seen.keySet()));
+  }
+
+  @Test
+  public void compactValuesShouldBeImmutableAllTheWayDown() {
+    Map<String, Object> map = Json.toMap(COMPACT).apply("{\"list\": [1, {\"nested\": [2]}]}");
+
+    List<?> list = (List<?>) map.get("list");
+    List<?> nested = (List<?>) ((Map<?, ?>) list.get(1)).get("nested");
+    for (Runnable change : ImmutableList.<Runnable>of(
+        () -> map.put("cheese", "brie"),
+        list::clear,
+        nested::clear)) {
+      try {
+        change.run();
+        fail("Value should not be modifiable");
+      } catch (UnsupportedOperationException expected) {
+        // Expected
+      }
+    }
+  }
+
+  @Test
+  public void laterValuesForTheSameKeyShouldWin() {
+    assertEquals(ImmutableMap.of("a", 2L), Json.toMap(COMPACT).apply("{\"a\": 1, \"a\": 2}"));
+  }
+
+  @Test
+  public void compactValuesShouldRoundTrip() {
+    String json = "{\"capabilities\":{\"firstMatch\":[{\"browserName\":\"cheese\"}]},\"meta\":null}";
+
+    Object read = Json.newInput(new StringReader(json), COMPACT).read(OBJECT_TYPE);
+
+    assertEquals(json, TO_JSON.apply(read));
+  }
+
+  @Test
+  public void shouldReadAndWriteUtf8BytesDirectly() throws IOException {
+    // Long enough that multi-byte characters straddle the ends of the internal buffers
+    String text = Strings.repeat("caf\u00e9 \u65e5\u672c \ud83e\uddc0 ", 1000);
+    Map<String, Object> expected = ImmutableMap.of("cheese", text, "count", 1L);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (JsonOutput out = Json.newOutput(bytes)) {
+      out.write(expected, MAP_TYPE);
+    }
+    assertArrayEquals(TO_JSON.apply(expected).getBytes(UTF_8), bytes.toByteArray());
+
+    // Hand the bytes over a few at a time
+    InputStream trickle = new FilterInputStream(new ByteArrayInputStream(bytes.toByteArray())) {
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        return super.read(b, off, Math.min(len, 7));
+      }
+    };
+    assertEquals(expected, Json.newInput(trickle, COMPACT).read(MAP_TYPE));
+
+    ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+    assertEquals(expected, Json.newInput(buffer, COMPACT).read(MAP_TYPE));
+    assertEquals(0, buffer.position());
+  }
+
+  @Test
+  public void malformedUtf8ShouldBeDecodedAsTheJdkWould() throws IOException {
+    byte[] bytes = {
+        '"', 'a', (byte) 0xC3, '"', 'b', (byte) 0xE6, (byte) 0x97, (byte) 0xFF,
+        (byte) 0xE2, (byte) 0x82, 'A', '"'};
+
+    Object read = Json.newInput(ByteBuffer.wrap(bytes), COMPACT).read(OBJECT_TYPE);
+
+    assertEquals(Json.newInput(new StringReader(new String(bytes, UTF_8)), COMPACT).read(OBJECT_TYPE), read);
+
+    // A truncated sequence becomes a single replacement, whether or not the input ends there
+    assertEquals("\uFFFDA", decode((byte) 0xE2, (byte) 0x82, (byte) 'A'));
+    assertEquals("A\uFFFD", decode((byte) 'A', (byte) 0xE2, (byte) 0x82));
+  }
+
+  @Test
+  public void everyKindOfMalformedUtf8ShouldBeReplacedAsTheJdkWould() throws IOException {
+    int[] seconds = {-1, 'A', 0x80, 0x8F, 0x90, 0x9F, 0xA0, 0xBF, 0xC0};
+    int[] thirds = {-1, 'A', 0x80, 0xBF};
+    int[] fourths = {-1, 'A', 0x80};
+
+    for (int lead = 0x80; lead <= 0xFF; lead++) {
+      for (int second : seconds) {
+        for (int third : thirds) {
+          for (int fourth : fourths) {
+            ByteArrayOutputStream sequence = new ByteArrayOutputStream();
+            for (int b : new int[] {lead, second, third, fourth}) {
+              if (b < 0) {
+                break;
+              }
+              sequence.write(b);
+            }
+            byte[] bytes = sequence.toByteArray();
+
+            assertEquals(Arrays.toString(bytes), new String(bytes, UTF_8), decode(bytes));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void shouldCopyValuesFromInputToOutputAsTheyAre() throws IOException {
+    String json = "{\"zebra\":[1,2.50,{\"a\":true}],\"aardvark\":null,\"big\":12345678901234567890}";
+
+    StringWriter copied = new StringWriter();
+    try (JsonInput in = Json.newInput(new StringReader(json));
+         JsonOutput out = Json.newOutput(copied)) {
+      out.write(in, MAP_TYPE);
+    }
+
+    assertEquals(json, copied.toString());
+  }
+
+  @Test
+  public void shouldLeaveOutMembersRejectedWhileCopying() throws IOException {
+    String json = "{\"moz:firefoxOptions\":{\"profile\":\"AAAA\",\"args\":[{\"profile\":1}]},"
+        + "\"profile\":\"keep\"}";
+
+    StringWriter copied = new StringWriter();
+    try (JsonInput in = Json.newInput(new StringReader(json));
+         JsonOutput out = Json.newOutput(copied)) {
+      out.write(
+          in,
+          OBJECT_TYPE,
+          path -> !path.equals(ImmutableList.of("moz:firefoxOptions", "profile")));
+    }
+
+    assertEquals(
+        "{\"moz:firefoxOptions\":{\"args\":[{\"profile\":1}]},\"profile\":\"keep\"}",
+        copied.toString());
+  }
+
+  @Test
+  public void integersShouldBeReadAsLongsOrBigIntegersAndEverythingElseAsDoubles() {
+    Map<String, Object> map = Json.toMap(COMPACT).apply(
+        "{\"a\": 300000, \"b\": -42, \"c\": 1.5, \"d\": 1e3, \"e\": 12345678901234567890, "
+            + "\"f\": -9223372036854775808, \"g\": [7]}");
+
+    assertEquals(300000L, map.get("a"));
+    assertEquals(-42L, map.get("b"));
+    assertEquals(1.5, map.get("c"));
+    assertEquals(1000.0, map.get("d"));
+    assertEquals(new BigInteger("12345678901234567890"), map.get("e"));
+    assertEquals("12345678901234567890", TO_JSON.apply(map.get("e")));
+    assertEquals(Long.MIN_VALUE, map.get("f"));
+    assertEquals(ImmutableList.of(7L), map.get("g"));
+  }
+
+  @Test
+  public void shouldWriteNullsAndValuesOfAnyType() throws IOException {
+    Map<String, Object> map = new LinkedHashMap<>();
+    map.put("nothing", null);
+    map.put("list", Arrays.asList("cheese", null, 1, 2.5f, true));
+    map.put("set", ImmutableSortedSet.of("a", "b"));
+    map.put("short", (short) 3);
+
+    StringWriter written = new StringWriter();
+    try (JsonOutput out = Json.newOutput(written)) {
+      out.write(map, MAP_TYPE);
+    }
+
+    assertEquals(
+        "{\"nothing\":null,\"list\":[\"cheese\",null,1,2.5,true],\"set\":[\"a\",\"b\"],\"short\":3}",
+        written.toString());
+  }
+
+  private static String decode(byte... bytes) throws IOException {
+    String decoded = CharStreams.toString(new Utf8Reader(ByteBuffer.wrap(bytes)));
+
+    // Handing the bytes over one at a time means sequences are split between reads
+    InputStream trickle = new FilterInputStream(new ByteArrayInputStream(bytes)) {
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        return super.read(b, off, Math.min(len, 1));
+      }
+    };
+    assertEquals(decoded, CharStreams.toString(new Utf8Reader(trickle)));
+
+    return decoded;
+  }
+}
@@ -0,0 +1,139 @@
+package org.infalible.selenium.remote.session;
+
+import com.google.common.io.ByteStreams;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class AdapterRegistryTest {
+
+  @Rule
+  public TemporaryFolder tempDir = new TemporaryFolder();
+
+  private final ClassLoader original = Thread.currentThread().getContextClassLoader();
+
+  @After
+  public void restoreClassLoader() {
+    Thread.currentThread().setContextClassLoader(original);
+  }
+
+  @Test
+  public void shouldOnlyLookForAdaptersOncePerClassLoader() {
+    AdapterIndex adapters = AdapterRegistry.getAdapters();
+
+    assertSame(adapters, AdapterRegistry.getAdapters());
+
+    ClassLoader other = new URLClassLoader(new URL[0], original);
+    Thread.currentThread().setContextClassLoader(other);
+    AdapterIndex otherAdapters = AdapterRegistry.getAdapters();
+    assertNotSame(adapters, otherAdapters);
+    assertSame(otherAdapters, AdapterRegistry.getAdapters());
+
+    Thread.currentThread().setContextClassLoader(original);
+    assertSame(adapters, AdapterRegistry.getAdapters());
+  }
+
+  @Test
+  public void refreshingShouldLookForAdaptersAgain() {
+    AdapterIndex adapters = AdapterRegistry.getAdapters();
+
+    AdapterRegistry.refresh();
+
+    AdapterIndex refreshed = AdapterRegistry.getAdapters();
+    assertNotSame(adapters, refreshed);
+
+    AdapterRegistry.refresh(Thread.currentThread().getContextClassLoader());
+
+    assertNotSame(refreshed, AdapterRegistry.getAdapters());
+  }
+
+  @Test
+  public void discardedClassLoadersShouldBeCollected() throws Exception {
+    int builtIn = AdapterRegistry.getAdapters().size();
+
+    File services = tempDir.newFile();
+    Files.write(services.toPath(), CheeseAdapter.class.getName().getBytes(UTF_8));
+    ClassLoader plugin = new PluginClassLoader(original, services.toURI().toURL());
+    Thread.currentThread().setContextClassLoader(plugin);
+    assertEquals(builtIn + 1, AdapterRegistry.getAdapters().size());
+
+    Thread.currentThread().setContextClassLoader(original);
+    AdapterRegistry.getAdapters();
+
+    WeakReference<ClassLoader> discarded = new WeakReference<>(plugin);
+    plugin = null;
+    for (int i = 0; i < 50 && discarded.get() != null; i++) {
+      System.gc();
+      Thread.sleep(20);
+    }
+
+    assertNull("Class loader was not collected", discarded.get());
+  }
+
+  public static class CheeseAdapter implements CapabilitiesAdapter {
+    @Override
+    public Map<String, Object> apply(Map<String, Object> capabilities) {
+      return null;
+    }
+  }
+
+  /**
+   * Defines its own copy of {@link CheeseAdapter} and offers it as a service, so that the adapters
+   * found for it refer back to it, as they would for a plugin's class loader.
+   */
+  private static class PluginClassLoader extends ClassLoader {
+    private final URL services;
+
+    PluginClassLoader(ClassLoader parent, URL services) {
+      super(parent);
+      this.services = services;
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+      if (!CheeseAdapter.class.getName().equals(name)) {
+        return super.loadClass(name, resolve);
+      }
+
+      synchronized (getClassLoadingLock(name)) {
+        Class<?> loaded = findLoadedClass(name);
+        if (loaded != null) {
+          return loaded;
+        }
+        String resource = name.replace('.', '/') + ".class";
+        try (InputStream in = getParent().getResourceAsStream(resource)) {
+          byte[] bytes = ByteStreams.toByteArray(in);
+          return defineClass(name, bytes, 0, bytes.length);
+        } catch (IOException e) {
+          throw new ClassNotFoundException(name, e);
+        }
+      }
+    }
+
+    @Override
+    public Enumeration<URL> getResources(String name) throws IOException {
+      if (("META-INF/services/" + CapabilitiesAdapter.class.getName()).equals(name)) {
+        return Collections.enumeration(Collections.singletonList(services));
+      }
+      return super.getResources(name);
+    }
+  }
+}
@@ -0,0 +1,78 @@
+package org.infalible.selenium.remote.session;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+import org.openqa.selenium.Proxy;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.infalible.selenium.remote.session.CapabilitiesValidator.Problem.Kind.ILLEGAL_KEY;
+import static org.infalible.selenium.remote.session.CapabilitiesValidator.Problem.Kind.UNEXPECTED_VALUE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CapabilitiesValidatorTest {
+
+  @Test
+  public void shouldAcceptStandardAndExtensionCapabilities() {
+    List<CapabilitiesValidator.Problem> problems = CapabilitiesValidator.W3C.validate(
+        ImmutableMap.<String, Object>builder()
+            .put("browserName", "cheese")
+            .put("pageLoadStrategy", "eager")
+            .put("timeouts", ImmutableMap.of("implicit", 0L, "pageLoad", 300000L))
+            .put("goog:chromeOptions", ImmutableMap.of())
+            .put("se-grid_2:node", "localhost:5555")
+            .build());
+
+    assertTrue(problems.toString(), problems.isEmpty());
+  }
+
+  @Test
+  public void shouldReportEveryProblem() {
+    List<CapabilitiesValidator.Problem> problems = CapabilitiesValidator.W3C.validate(
+        ImmutableMap.of(
+            "chromeOptions", ImmutableMap.of(),
+            ":nameless", true,
+            "browserName", 42,
+            "pageLoadStrategy", "whenever"));
+
+    assertEquals(
+        ImmutableList.of(ILLEGAL_KEY, ILLEGAL_KEY, UNEXPECTED_VALUE, UNEXPECTED_VALUE),
+        problems.stream()
+            .map(CapabilitiesValidator.Problem::getKind)
+            .collect(ImmutableList.toImmutableList()));
+    assertEquals("Illegal key value seen: chromeOptions", problems.get(0).toString());
+  }
+
+  @Test
+  public void shouldAcceptTheSameProxiesAsTheProxyClass() {
+    List<Map<String, Object>> proxies = ImmutableList.of(
+        ImmutableMap.of(),
+        ImmutableMap.of("proxyType", "manual", "httpProxy", "localhost:3128"),
+        ImmutableMap.of("httpProxy", "localhost:3128", "sslProxy", "localhost:3129"),
+        ImmutableMap.of("proxyType", "pac", "proxyAutoconfigUrl", "http://example.com/proxy.pac"),
+        ImmutableMap.of("proxyType", "system", "autodetect", false),
+        ImmutableMap.of("autodetect", true),
+        ImmutableMap.of("proxyType", "pac", "httpProxy", "localhost:3128"),
+        ImmutableMap.of("proxyType", "cheese"),
+        ImmutableMap.of("httpProxy", 3128),
+        ImmutableMap.of("httpProxy", "localhost:3128", "autodetect", true));
+
+    for (Map<String, Object> proxy : proxies) {
+      boolean canBeBuilt;
+      try {
+        new Proxy(proxy);
+        canBeBuilt = true;
+      } catch (RuntimeException e) {
+        canBeBuilt = false;
+      }
+
+      assertEquals(
+          proxy.toString(),
+          canBeBuilt,
+          CapabilitiesValidator.W3C.validate(ImmutableMap.of("proxy", proxy)).isEmpty());
+    }
+  }
+}
@@ -1,5 +1,6 @@
 package org.infalible.selenium.remote.session;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import org.junit.Test;
@@ -7,6 +8,7 @@ import org.openqa.selenium.remote.CapabilityType;
 
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -46,6 +48,85 @@ public class JwpToW3CCapabilitiesAdapterTest {
     assertTrue(converted.contains(ImmutableMap.of("goog:chromeOptions", ImmutableMap.of())));
   }
 
+  @Test
+  public void declaredCapabilitiesShouldMatchWhatEachAdapterPicksOut() {
+    Map<String, Object> caps = ImmutableMap.<String, Object>builder()
+        .put("browserName", "chrome")
+        .put("chromeOptions", ImmutableMap.of())
+        .put("goog:loggingPrefs", ImmutableMap.of())
+        .put("moz:firefoxOptions", ImmutableMap.of())
+        .put("firefox_profile", "abc")
+        .put("ie.ensureCleanSession", true)
+        .put("ignoreZoomSetting", true)
+        .put("operaOptions", ImmutableMap.of())
+        .put("safari.options", ImmutableMap.of())
+        .put("platformName", "linux")
+        .put("cheese:brie", true)
+        .build();
+
+    for (CapabilitiesAdapter adapter : ImmutableSet.of(
+        new ChromeAdapter(),
+        new EdgeAdapter(),
+        new FirefoxAdapter(),
+        new IEAdapter(),
+        new OperaAdapter(),
+        new SafariAdapter())) {
+      Map<String, Object> expected = adapter.apply(caps);
+
+      Set<Map<String, Object>> converted =
+          new JwpToW3CCapabilitiesAdapter(ImmutableSet.of(adapter)).apply(caps)
+              .collect(ImmutableSet.toImmutableSet());
+
+      if (expected == null) {
+        assertEquals(adapter.toString(), ImmutableSet.of(caps), converted);
+      } else {
+        Map<String, Object> withCommonKeys = new TreeMap<>(expected);
+        withCommonKeys.put("platformName", "linux");
+        if (!expected.containsKey("browserName")) {
+          withCommonKeys.put("browserName", "chrome");
+        }
+        assertEquals(adapter.toString(), ImmutableSet.of(withCommonKeys), converted);
+      }
+    }
+  }
+
+  @Test
+  public void adaptersThatAreNotDeclarativeShouldBeAppliedToTheWholeMap() {
+    CapabilitiesAdapter cheese = caps -> caps.containsKey("cheese:brie")
+        ? ImmutableMap.of("cheese:brie", caps.get("cheese:brie"))
+        : null;
+    Map<String, Object> caps = ImmutableMap.of(
+        "cheese:brie", true,
+        "goog:chromeOptions", ImmutableMap.of(),
+        "platformName", "linux");
+
+    Set<Map<String, Object>> converted =
+        new JwpToW3CCapabilitiesAdapter(ImmutableList.of(cheese, new ChromeAdapter())).apply(caps)
+            .collect(ImmutableSet.toImmutableSet());
+
+    assertEquals(
+        ImmutableSet.of(
+            ImmutableMap.of("cheese:brie", true, "platformName", "linux"),
+            ImmutableMap.of("goog:chromeOptions", ImmutableMap.of(), "platformName", "linux")),
+        converted);
+  }
+
+  @Test
+  public void whatNonDeclarativeAdaptersReturnShouldBeUsedAsIs() {
+    CapabilitiesAdapter renaming = caps -> caps.containsKey("chromeOptions")
+        ? ImmutableMap.of("goog:chromeOptions", caps.get("chromeOptions"))
+        : null;
+
+    Set<Map<String, Object>> converted =
+        new JwpToW3CCapabilitiesAdapter(ImmutableList.of(renaming))
+            .apply(ImmutableMap.of("chromeOptions", ImmutableMap.of("args", "--cheese")))
+            .collect(ImmutableSet.toImmutableSet());
+
+    assertEquals(
+        ImmutableSet.of(ImmutableMap.of("goog:chromeOptions", ImmutableMap.of("args", "--cheese"))),
+        converted);
+  }
+
   private Set<Map<String, Object>> adapt(Map<String, Object> caps) {
     JwpToW3CCapabilitiesAdapter adapter = new JwpToW3CCapabilitiesAdapter();
     return adapter.apply(caps).collect(ImmutableSet.toImmutableSet());
@@ -0,0 +1,139 @@
+package org.infalible.selenium.remote.session;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.infalible.selenium.json.Json;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class LazyMetadataTest {
+
+  @Test
+  public void valuesShouldOnlyBeReadWhenFirstAskedFor() {
+    CountingView view = new CountingView(ImmutableMap.of(
+        "cloud:token", "cheese",
+        "cloud:profile", "a very large blob",
+        "desiredCapabilities", ImmutableMap.of()));
+    Map<String, Object> metadata = new LazyMetadata(view, key -> !"desiredCapabilities".equals(key));
+
+    assertEquals(ImmutableList.of(), view.read);
+
+    assertEquals("cheese", metadata.get("cloud:token"));
+    assertEquals("cheese", metadata.get("cloud:token"));
+    assertNull(metadata.get("desiredCapabilities"));
+
+    assertEquals(ImmutableList.of("cloud:token"), view.read);
+  }
+
+  @Test
+  public void shouldLeaveOutEntriesWithoutValues() {
+    Map<String, Object> payload = new HashMap<>();
+    payload.put("cloud:token", "cheese");
+    payload.put("cloud:nothing", null);
+    CountingView view = new CountingView(payload);
+    Map<String, Object> metadata = new LazyMetadata(view, key -> true);
+
+    assertFalse(metadata.containsKey("cloud:nothing"));
+    assertEquals(ImmutableMap.of("cloud:token", "cheese"), metadata);
+    assertEquals(2, view.read.size());
+  }
+
+  @Test
+  public void keysTheViewHasRuledOutShouldNotBeLookedUp() {
+    CountingView view = new CountingView(ImmutableMap.of("cloud:token", "cheese"));
+    Map<String, Object> metadata = new LazyMetadata(view, key -> true);
+
+    assertNull(metadata.get("cloud:missing"));
+    assertFalse(metadata.containsKey("cloud:missing"));
+
+    assertEquals(ImmutableList.of(), view.read);
+  }
+
+  @Test
+  public void streamedValuesShouldBeSafeToReadFromSeveralThreads() throws Exception {
+    Map<String, Object> payload = new LinkedHashMap<>();
+    for (int i = 0; i < 200; i++) {
+      payload.put("cloud:key" + i, ImmutableMap.of("value", i, "padding", Strings.repeat("x", 100)));
+    }
+    payload.put("desiredCapabilities", ImmutableMap.of());
+    String json = Json.TO_JSON.apply(payload);
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try (StreamingPayloadView view = new StreamingPayloadView(new StringReader(json))) {
+      Map<String, Object> metadata = new LazyMetadata(view, key -> key.startsWith("cloud:"));
+
+      List<Future<Object>> values = new ArrayList<>();
+      for (int i = 199; i >= 0; i--) {
+        String key = "cloud:key" + i;
+        values.add(executor.submit(() -> metadata.get(key)));
+      }
+
+      for (int i = 0; i < values.size(); i++) {
+        Map<?, ?> value = (Map<?, ?>) values.get(i).get();
+        assertEquals(199L - i, ((Number) value.get("value")).longValue());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static class CountingView extends PayloadView {
+    private final Map<String, Object> payload;
+    private final List<String> read = new ArrayList<>();
+
+    CountingView(Map<String, Object> payload) {
+      this.payload = payload;
+    }
+
+    @Override
+    Stream<String> getKeys() {
+      return payload.keySet().stream();
+    }
+
+    @Override
+    boolean containsKey(String key) {
+      return payload.containsKey(key);
+    }
+
+    @Override
+    boolean mayContainKey(String key) {
+      return payload.containsKey(key);
+    }
+
+    @Override
+    Entry getMetadata(String key) {
+      read.add(key);
+      return new Entry(key, payload.get(key));
+    }
+
+    @Override
+    Map<String, Object> getAlwaysMatch() {
+      return ImmutableMap.of();
+    }
+
+    @Override
+    Stream<Map<String, Object>> getFirstMatches() {
+      return Stream.of(ImmutableMap.of());
+    }
+
+    @Override
+    Map<String, Object> getDesiredCapabilities() {
+      return null;
+    }
+  }
+}
@@ -1,18 +1,29 @@
 package org.infalible.selenium.remote.session;
 
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
 import org.infalible.selenium.json.Json;
 import org.junit.Test;
 import org.openqa.selenium.SessionNotCreatedException;
+import org.openqa.selenium.remote.Dialect;
 
+import java.io.FilterReader;
 import java.io.IOException;
+import java.io.Reader;
 import java.io.StringReader;
+import java.time.Duration;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -82,6 +93,28 @@ public class NewSessionPayloadTest {
             .collect(ImmutableList.toImmutableList()));
   }
 
+  @Test
+  public void sectionsWithTheSameContentsShouldShareAFingerprint() throws IOException {
+    List<PayloadSection> sections =
+        asSections(
+            ImmutableMap.of(
+                "desiredCapabilities",
+                ImmutableMap.of("pageLoadStrategy", "eager", "browserName", "cheese"),
+                "capabilities",
+                ImmutableMap.of(
+                    "alwaysMatch", ImmutableMap.of("browserName", "cheese"),
+                    "firstMatch",
+                        ImmutableList.of(
+                            ImmutableMap.of("pageLoadStrategy", "eager"),
+                            ImmutableMap.of("pageLoadStrategy", "none")))));
+
+    assertEquals(3, sections.size());
+    assertEquals(sections.get(0).getFingerprint(), sections.get(1).getFingerprint());
+    assertEquals(sections.get(0).hashCode(), sections.get(1).hashCode());
+    assertEquals(sections.get(0), sections.get(1));
+    assertNotEquals(sections.get(0).getFingerprint(), sections.get(2).getFingerprint());
+  }
+
   @Test
   public void theW3CSpecSaysWeOnlyNeedACapabilitiesKey() throws IOException {
     ImmutableMap<String, Object> rawPayload = ImmutableMap.of("capabilities", ImmutableMap.of());
@@ -110,6 +143,71 @@ public class NewSessionPayloadTest {
                 "firstMatch", ImmutableList.of(ImmutableMap.of("browserName", "peas")))));
   }
 
+  @Test
+  public void malformedCapabilitiesShouldFailTheSameWayHoweverThePayloadIsRead() throws IOException {
+    for (String json : ImmutableList.of(
+        "{\"capabilities\": \"cheese\"}",
+        "{\"capabilities\": {\"firstMatch\": 3}}",
+        "{\"desiredCapabilities\": [\"cheese\"]}")) {
+      try (NewSessionPayload payload = new NewSessionPayload(new StringReader(json), json.length())) {
+        payload.stream().count();
+        fail("In memory: " + json);
+      } catch (SessionNotCreatedException expected) {
+        // Expected
+      }
+
+      try (NewSessionPayload payload = new NewSessionPayload(
+          new StringReader(json), json.length(), new PayloadMemoryBudget(0, Duration.ZERO))) {
+        payload.stream().count();
+        fail("On disk: " + json);
+      } catch (SessionNotCreatedException expected) {
+        // Expected
+      }
+
+      try (NewSessionPayload payload = NewSessionPayload.fromStream(new StringReader(json))) {
+        payload.stream().count();
+        fail("Streamed: " + json);
+      } catch (SessionNotCreatedException expected) {
+        // Expected
+      }
+    }
+  }
+
+  @Test
+  public void invalidCapabilitiesShouldBeRejectedWhetherInAlwaysMatchOrFirstMatch()
+      throws IOException {
+    for (Map<String, Object> capabilities : ImmutableList.<Map<String, Object>>of(
+        ImmutableMap.of(
+            "alwaysMatch", ImmutableMap.of("cheese", "brie"),
+            "firstMatch", ImmutableList.of(ImmutableMap.of("browserName", "peas"))),
+        ImmutableMap.of(
+            "alwaysMatch", ImmutableMap.of("browserName", "peas"),
+            "firstMatch", ImmutableList.of(
+                ImmutableMap.of("platformName", "linux"),
+                ImmutableMap.of("setWindowRect", "cheese"))))) {
+      String json = Json.TO_JSON.apply(ImmutableMap.of("capabilities", capabilities));
+
+      for (long budget : new long[] {Long.MAX_VALUE, 0}) {
+        try (NewSessionPayload payload = new NewSessionPayload(
+            new StringReader(json),
+            json.length(),
+            new PayloadMemoryBudget(budget, Duration.ZERO))) {
+          payload.stream().count();
+          fail("Budget " + budget + ": " + json);
+        } catch (SessionNotCreatedException expected) {
+          // Expected
+        }
+      }
+
+      try (NewSessionPayload payload = NewSessionPayload.fromStream(new StringReader(json))) {
+        payload.stream().count();
+        fail("Streamed: " + json);
+      } catch (SessionNotCreatedException expected) {
+        // Expected
+      }
+    }
+  }
+
   @Test
   public void shouldOutputOssCapabilitiesFirst() throws IOException {
     List<PayloadSection> sections =
@@ -141,23 +239,256 @@ public class NewSessionPayloadTest {
         .ifPresent(meta -> fail("Meta data not correct: " + meta));
   }
 
+  @Test
+  public void streamedPayloadsShouldReturnSectionsInPayloadOrder() throws IOException {
+    String json = Json.TO_JSON.apply(
+        ImmutableMap.of(
+            "capabilities",
+                ImmutableMap.of("alwaysMatch", ImmutableMap.of("browserName", "cheese")),
+            "desiredCapabilities", ImmutableMap.of("browserName", "peas")));
+
+    try (NewSessionPayload payload = NewSessionPayload.fromStream(new StringReader(json))) {
+      assertEquals(
+          ImmutableList.of(
+              ImmutableMap.of("browserName", "cheese"), ImmutableMap.of("browserName", "peas")),
+          payload.stream()
+              .map(PayloadSection::getCapabilities)
+              .collect(ImmutableList.toImmutableList()));
+    }
+  }
+
+  @Test
+  public void takingTheFirstSectionOfAStreamedPayloadShouldNotReadTheRestOfIt() throws IOException {
+    Map<String, Object> rawPayload = new LinkedHashMap<>();
+    rawPayload.put("desiredCapabilities", ImmutableMap.of("browserName", "cheese"));
+    rawPayload.put("cloud:profile", Strings.repeat("x", 100_000));
+    String json = Json.TO_JSON.apply(rawPayload);
+    CountingReader in = new CountingReader(new StringReader(json));
+
+    try (NewSessionPayload payload = NewSessionPayload.fromStream(in)) {
+      PayloadSection first = payload.stream().findFirst().orElseThrow(AssertionError::new);
+
+      assertEquals("cheese", first.getCapabilities().get("browserName"));
+      assertTrue("Read " + in.count + " of " + json.length(), in.count < json.length() / 2);
+    }
+  }
+
+  @Test
+  public void closingAStreamedPayloadShouldNotReadTheRestOfIt() throws IOException {
+    Map<String, Object> rawPayload = new LinkedHashMap<>();
+    rawPayload.put("desiredCapabilities", ImmutableMap.of("browserName", "cheese"));
+    rawPayload.put("cloud:token", "i like cheese");
+    rawPayload.put("capabilities", ImmutableMap.of(
+        "firstMatch", ImmutableList.of(ImmutableMap.of("browserName", "peas"))));
+    rawPayload.put("cloud:profile", Strings.repeat("x", 100_000));
+    String json = Json.TO_JSON.apply(rawPayload);
+    CountingReader in = new CountingReader(new StringReader(json));
+
+    try (NewSessionPayload payload = NewSessionPayload.fromStream(in)) {
+      PayloadSection first = payload.stream().findFirst().orElseThrow(AssertionError::new);
+      assertEquals("cheese", first.getCapabilities().get("browserName"));
+      assertEquals("i like cheese", first.getMetadata().get("cloud:token"));
+    }
+
+    assertTrue("Read " + in.count + " of " + json.length(), in.count < json.length() / 2);
+  }
+
+  @Test
+  public void fingerprintingOrComparingAStreamedSectionShouldNotReadTheRestOfThePayload()
+      throws IOException {
+    Map<String, Object> rawPayload = new LinkedHashMap<>();
+    rawPayload.put("desiredCapabilities", ImmutableMap.of("browserName", "cheese"));
+    rawPayload.put("cloud:profile", Strings.repeat("x", 100_000));
+    String json = Json.TO_JSON.apply(rawPayload);
+    CountingReader in = new CountingReader(new StringReader(json));
+
+    try (NewSessionPayload payload = NewSessionPayload.fromStream(in)) {
+      PayloadSection first = payload.stream().findFirst().orElseThrow(AssertionError::new);
+      first.getFingerprint();
+      first.hashCode();
+      assertEquals(
+          new PayloadSection(ImmutableMap.of("browserName", "cheese"), ImmutableMap.of()), first);
+
+      assertTrue("Read " + in.count + " of " + json.length(), in.count < json.length() / 2);
+    }
+  }
+
+  @Test
+  public void shouldBeAbleToStreamAPayloadMoreThanOnce() throws IOException {
+    String json = Json.TO_JSON.apply(
+        ImmutableMap.of(
+            "capabilities", ImmutableMap.of(
+                "alwaysMatch", ImmutableMap.of("pageLoadStrategy", "eager"),
+                "firstMatch", ImmutableList.of(
+                    ImmutableMap.of("browserName", "cheese"),
+                    ImmutableMap.of("browserName", "peas")))));
+
+    for (long budget : new long[] {Long.MAX_VALUE, 0}) {
+      try (NewSessionPayload payload = new NewSessionPayload(
+          new StringReader(json),
+          json.length(),
+          new PayloadMemoryBudget(budget, Duration.ZERO))) {
+        List<PayloadSection> first = payload.stream().collect(ImmutableList.toImmutableList());
+        List<PayloadSection> second = payload.stream().collect(ImmutableList.toImmutableList());
+
+        assertEquals(2, first.size());
+        assertEquals(first, second);
+      }
+    }
+  }
+
+  @Test
+  public void spilledW3CSectionsShouldNotBeReadAgainAfterBeingValidated() throws IOException {
+    String json = Json.TO_JSON.apply(
+        ImmutableMap.of(
+            "capabilities", ImmutableMap.of(
+                "alwaysMatch", ImmutableMap.of("pageLoadStrategy", "eager"),
+                "firstMatch", ImmutableList.of(ImmutableMap.of("browserName", "cheese")))));
+
+    try (NewSessionPayload payload = new NewSessionPayload(
+        new StringReader(json),
+        json.length(),
+        new PayloadMemoryBudget(0, Duration.ZERO))) {
+      PayloadSection first = payload.stream().findFirst().orElseThrow(AssertionError::new);
+      PayloadSection second = payload.stream().findFirst().orElseThrow(AssertionError::new);
+
+      assertSame(first.getCapabilities(), second.getCapabilities());
+    }
+  }
+
+  @Test
+  public void shouldWorkOutWhichDialectsToSpeakDownstream() throws IOException {
+    Map<Map<String, Object>, Set<Dialect>> expected = ImmutableMap.of(
+        ImmutableMap.of("desiredCapabilities", ImmutableMap.of()), ImmutableSet.of(Dialect.OSS),
+        ImmutableMap.of("capabilities", ImmutableMap.of()), ImmutableSet.of(Dialect.W3C),
+        ImmutableMap.of(
+            "capabilities", ImmutableMap.of(),
+            "desiredCapabilities", ImmutableMap.of()), ImmutableSet.of(Dialect.OSS, Dialect.W3C),
+        ImmutableMap.of("cloud:token", "cheese"), ImmutableSet.of());
+
+    for (Map.Entry<Map<String, Object>, Set<Dialect>> entry : expected.entrySet()) {
+      String json = Json.TO_JSON.apply(entry.getKey());
+
+      for (long budget : new long[] {Long.MAX_VALUE, 0}) {
+        try (NewSessionPayload payload = new NewSessionPayload(
+            new StringReader(json),
+            json.length(),
+            new PayloadMemoryBudget(budget, Duration.ZERO))) {
+          assertEquals(json, entry.getValue(), payload.getDownstreamDialects());
+        }
+      }
+
+      try (NewSessionPayload payload = NewSessionPayload.fromStream(new StringReader(json))) {
+        assertEquals(json, entry.getValue(), payload.getDownstreamDialects());
+      }
+    }
+  }
+
+  @Test
+  public void payloadsShouldShareAMemoryBudget() throws IOException {
+    String json = Json.TO_JSON.apply(ImmutableMap.of("desiredCapabilities", ImmutableMap.of()));
+    int length = json.getBytes(UTF_8).length;
+    PayloadMemoryBudget budget = new PayloadMemoryBudget(length, Duration.ZERO);
+
+    try (NewSessionPayload first = new NewSessionPayload(new StringReader(json), length, budget);
+         NewSessionPayload second = new NewSessionPayload(new StringReader(json), length, budget)) {
+      assertEquals(length, budget.getReservedBytes());
+      assertEquals(1, budget.getReservationCount());
+      assertEquals(1, budget.getSpillCount());
+      assertEquals(first.stream().count(), second.stream().count());
+    }
+
+    assertEquals(0, budget.getReservedBytes());
+  }
+
+  @Test
+  public void payloadsOfUnknownLengthShouldBeSpilledRatherThanGrowTheBudget() throws IOException {
+    String json = Json.TO_JSON.apply(
+        ImmutableMap.of("desiredCapabilities", ImmutableMap.of("browserName", "cheese")));
+    PayloadMemoryBudget budget = new PayloadMemoryBudget(1024, Duration.ZERO);
+
+    try (NewSessionPayload payload = new NewSessionPayload(new StringReader(json), -1, budget)) {
+      assertEquals(0, budget.getReservedBytes());
+      assertEquals(0, budget.getReservationCount());
+      assertEquals(1, budget.getSpillCount());
+      assertEquals(1, payload.stream().count());
+    }
+
+    assertEquals(0, budget.getReservedBytes());
+  }
+
   private List<PayloadSection> asSections(Map<String, Object> rawPayload) throws IOException {
     String json = Json.TO_JSON.apply(rawPayload);
     byte[] bytes = json.getBytes(UTF_8);
     List<PayloadSection> fromMemory;
     List<PayloadSection> presumablyFromDisk;
+    Map<String, Object> metadata;
 
     try (NewSessionPayload payload = new NewSessionPayload(new StringReader(json), bytes.length)) {
       fromMemory = payload.stream().collect(ImmutableList.toImmutableList());
+      metadata = fromMemory.isEmpty() ? null : ImmutableMap.copyOf(fromMemory.get(0).getMetadata());
     }
 
     try (NewSessionPayload payload =
         new NewSessionPayload(new StringReader(json), Integer.MAX_VALUE)) {
       presumablyFromDisk = payload.stream().collect(ImmutableList.toImmutableList());
+      // Sections are equal whatever their metadata, so compare that separately.
+      for (PayloadSection section : presumablyFromDisk) {
+        assertEquals(metadata, section.getMetadata());
+      }
     }
 
     assertEquals(fromMemory, presumablyFromDisk);
 
+    // Streamed sections come out in the order they appear in the payload, so the W3C sections come
+    // first if "capabilities" comes before "desiredCapabilities".
+    List<PayloadSection> inPayloadOrder = fromMemory;
+    List<String> keys = ImmutableList.copyOf(rawPayload.keySet());
+    if (keys.contains("desiredCapabilities")
+        && keys.indexOf("capabilities") != -1
+        && keys.indexOf("capabilities") < keys.indexOf("desiredCapabilities")) {
+      Map<String, Object> ossOnly = Maps.filterKeys(rawPayload, key -> !"capabilities".equals(key));
+      int ossCount = asSections(ossOnly).size();
+      inPayloadOrder = ImmutableList.<PayloadSection>builder()
+          .addAll(fromMemory.subList(ossCount, fromMemory.size()))
+          .addAll(fromMemory.subList(0, ossCount))
+          .build();
+    }
+
+    try (NewSessionPayload payload = NewSessionPayload.fromStream(new StringReader(json))) {
+      List<PayloadSection> streamed = payload.stream().collect(ImmutableList.toImmutableList());
+      assertEquals(inPayloadOrder, streamed);
+      for (PayloadSection section : streamed) {
+        assertEquals(metadata, section.getMetadata());
+      }
+    }
+
     return fromMemory;
   }
+
+  private static class CountingReader extends FilterReader {
+    private long count;
+
+    CountingReader(Reader in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int read = super.read();
+      if (read != -1) {
+        count++;
+      }
+      return read;
+    }
+
+    @Override
+    public int read(char[] chars, int offset, int length) throws IOException {
+      int read = super.read(chars, offset, length);
+      if (read > 0) {
+        count += read;
+      }
+      return read;
+    }
+  }
 }
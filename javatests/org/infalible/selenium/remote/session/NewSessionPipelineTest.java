@@ -1,17 +1,26 @@
 package org.infalible.selenium.remote.session;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import org.junit.Test;
 
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
 import java.util.Comparator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Supplier;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.infalible.selenium.json.Json.TO_JSON;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class NewSessionPipelineTest {
 
@@ -118,6 +127,143 @@ public class NewSessionPipelineTest {
     assertEquals(expected, result);
   }
 
+  @Test
+  public void streamedPayloadsShouldStartASessionBeforeTheRestOfThePayloadIsRead() throws IOException {
+    ActiveSession expected = new FakeSession("expected");
+
+    NewSessionPipeline pipeline =
+        NewSessionPipeline.builder()
+            .match((caps, meta) -> "cheese".equals(caps.get("browserName")) ? () -> expected : null)
+            .build();
+
+    // The second entry is invalid, but we should never get as far as reading it.
+    String json = TO_JSON.apply(ImmutableMap.of(
+        "capabilities", ImmutableMap.of(
+            "firstMatch", ImmutableList.of(
+                ImmutableMap.of("browserName", "cheese"),
+                ImmutableMap.of("chromeOptions", ImmutableMap.of())))));
+
+    try (NewSessionPayload payload = NewSessionPayload.fromStream(new StringReader(json))) {
+      assertEquals(expected, pipeline.newSession(payload));
+    }
+  }
+
+  @Test
+  public void matchersShouldOnlyBeOfferedBrowsersTheyDeclare() throws IOException {
+    ActiveSession expected = new FakeSession("expected");
+
+    NewSessionPipeline pipeline =
+        NewSessionPipeline.builder()
+            .match(new CapabilityMatcher() {
+              @Override
+              public Supplier<ActiveSession> match(Map<String, Object> caps, Map<String, Object> meta) {
+                throw new RuntimeException("Never should be called");
+              }
+
+              @Override
+              public Set<String> getBrowserNames() {
+                return ImmutableSet.of("peas");
+              }
+            })
+            .match((caps, meta) -> () -> expected)
+            .build();
+
+    String json = TO_JSON.apply(ImmutableMap.of(
+        "capabilities", ImmutableMap.of("alwaysMatch", ImmutableMap.of("browserName", "cheese"))));
+
+    try (NewSessionPayload payload = new NewSessionPayload(new StringReader(json), json.length())) {
+      assertEquals(expected, pipeline.newSession(payload));
+    }
+  }
+
+  @Test
+  public void browserAndPlatformNamesShouldBeMatchedRegardlessOfCaseOrPlatformVersion()
+      throws IOException {
+    ActiveSession expected = new FakeSession("expected");
+    ActiveSession other = new FakeSession("other");
+
+    NewSessionPipeline pipeline =
+        NewSessionPipeline.builder()
+            .match(new CapabilityMatcher() {
+              @Override
+              public Supplier<ActiveSession> match(Map<String, Object> caps, Map<String, Object> meta) {
+                return () -> expected;
+              }
+
+              @Override
+              public Set<String> getBrowserNames() {
+                return ImmutableSet.of("chrome");
+              }
+
+              @Override
+              public Set<String> getPlatformNames() {
+                return ImmutableSet.of("windows");
+              }
+            })
+            .match((caps, meta) -> () -> other)
+            .build();
+
+    Map<ImmutableMap<String, Object>, ActiveSession> cases = ImmutableMap.of(
+        ImmutableMap.of("browserName", "Chrome", "platformName", "WINDOWS"), expected,
+        ImmutableMap.of("browserName", "CHROME", "platformName", "win10"), expected,
+        ImmutableMap.of("browserName", "chrome", "platformName", "any"), expected,
+        ImmutableMap.of("browserName", "Chrome", "platformName", "linux"), other);
+
+    for (Map.Entry<ImmutableMap<String, Object>, ActiveSession> entry : cases.entrySet()) {
+      String json = TO_JSON.apply(ImmutableMap.of(
+          "capabilities", ImmutableMap.of("alwaysMatch", entry.getKey())));
+
+      try (NewSessionPayload payload = new NewSessionPayload(new StringReader(json), json.length())) {
+        assertEquals(entry.getKey().toString(), entry.getValue(), pipeline.newSession(payload));
+      }
+    }
+  }
+
+  @Test
+  public void speculativelyStartedProvidersShouldUseTheFirstToStartAndCloseTheRest()
+      throws IOException, InterruptedException {
+    CountDownLatch loserStarting = new CountDownLatch(1);
+    CountDownLatch loserClosed = new CountDownLatch(1);
+    ActiveSession expected = new FakeSession("expected");
+    ActiveSession loser = new ActiveSession() {
+      @Override
+      public void close() {
+        loserClosed.countDown();
+      }
+    };
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      NewSessionPipeline pipeline =
+          NewSessionPipeline.builder()
+              .match((caps, meta) -> () -> {
+                loserStarting.countDown();
+                try {
+                  // Wait until cancelled
+                  new CountDownLatch(1).await();
+                } catch (InterruptedException e) {
+                  // Carry on regardless: we want to check that we're cleaned up
+                }
+                return loser;
+              })
+              .match((caps, meta) -> () -> {
+                try {
+                  loserStarting.await();
+                } catch (InterruptedException e) {
+                  throw new RuntimeException(e);
+                }
+                return expected;
+              })
+              .startSpeculatively(2, executor)
+              .build();
+
+      assertEquals(expected, loadSession(pipeline));
+      assertTrue(loserClosed.await(5, SECONDS));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
   private ActiveSession loadSession(NewSessionPipeline pipeline) throws IOException {
     String json = TO_JSON.apply(ImmutableMap.of("capabilities", ImmutableMap.of()));
     byte[] rawPayload = json.getBytes(UTF_8);
@@ -0,0 +1,206 @@
+package org.infalible.selenium.remote.session;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.infalible.selenium.w3c.W3CCapabilities;
+import org.junit.Test;
+import org.openqa.selenium.ImmutableCapabilities;
+import org.openqa.selenium.Proxy;
+import org.openqa.selenium.remote.Dialect;
+import org.openqa.selenium.remote.http.HttpClient;
+import org.openqa.selenium.remote.http.HttpRequest;
+import org.openqa.selenium.remote.http.HttpResponse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.infalible.selenium.json.Json.TO_JSON;
+import static org.infalible.selenium.json.Json.TO_MAP;
+import static org.junit.Assert.assertEquals;
+
+public class NewSessionRequestTest {
+
+  @Test
+  public void shouldSendBothW3CAndJsonWireProtocolPayloads() throws IOException {
+    RecordingClient client = new RecordingClient();
+    NewSessionRequest request = new NewSessionRequest(
+        ImmutableMap.of("cloud:token", "cheese"),
+        new ImmutableCapabilities("browserName", "firefox"));
+
+    NewSessionRequest.Result result = request.apply(client);
+
+    assertEquals(Dialect.W3C, result.getDialect());
+    assertEquals("1234", result.getResponse().getSessionId());
+
+    Map<String, Object> sent = client.bodies.get(0);
+    assertEquals("cheese", sent.get("cloud:token"));
+    assertEquals(ImmutableMap.of("browserName", "firefox"), sent.get("desiredCapabilities"));
+    assertEquals(
+        ImmutableMap.of("firstMatch", ImmutableList.of(ImmutableMap.of("browserName", "firefox"))),
+        sent.get("capabilities"));
+  }
+
+  @Test
+  public void shouldRecogniseJsonWireProtocolResponses() throws IOException {
+    RecordingClient client = new RecordingClient(ImmutableMap.of(
+        "state", "success",
+        "sessionId", "5678",
+        "status", 0,
+        "value", ImmutableMap.of("browserName", "firefox"),
+        "hCode", 12345));
+
+    NewSessionRequest.Result result =
+        new NewSessionRequest(ImmutableMap.of(), new ImmutableCapabilities("browserName", "firefox"))
+            .apply(client);
+
+    assertEquals(Dialect.OSS, result.getDialect());
+    assertEquals("5678", result.getResponse().getSessionId());
+    assertEquals(ImmutableMap.of("browserName", "firefox"), result.getResponse().getValue());
+  }
+
+  @Test
+  public void identicalRequestsShouldReuseTheEncodedPayload() throws IOException {
+    RecordingClient client = new RecordingClient();
+    long hits = NewSessionRequest.getPayloadCacheStats().hitCount();
+
+    new NewSessionRequest(ImmutableMap.of(), new ImmutableCapabilities("browserName", "cheese"))
+        .apply(client);
+    new NewSessionRequest(ImmutableMap.of(), new ImmutableCapabilities("browserName", "cheese"))
+        .apply(client);
+
+    assertEquals(hits + 1, NewSessionRequest.getPayloadCacheStats().hitCount());
+    assertEquals(client.bodies.get(0), client.bodies.get(1));
+  }
+
+  @Test
+  public void shouldBeAbleToSendTheSameRequestMoreThanOnce() throws IOException {
+    RecordingClient client = new RecordingClient();
+    NewSessionRequest request = new NewSessionRequest(
+        W3CCapabilities.newBuilder()
+            .alwaysMatch(new ImmutableCapabilities("browserName", "chrome"))
+            .build());
+
+    request.apply(client);
+    request.apply(client);
+
+    assertEquals(2, client.bodies.size());
+    assertEquals(client.bodies.get(0), client.bodies.get(1));
+  }
+
+  @Test
+  public void changingNestedCapabilitiesShouldNotChangeWhatIsSentOrCached() throws IOException {
+    RecordingClient client = new RecordingClient();
+    Map<String, Object> options = new HashMap<>();
+    options.put("args", new ArrayList<>(ImmutableList.of("--cheese")));
+
+    NewSessionRequest first = new NewSessionRequest(
+        ImmutableMap.of(),
+        new ImmutableCapabilities("browserName", "chrome", "goog:chromeOptions", options));
+    first.apply(client);
+
+    options.put("args", ImmutableList.of("--peas"));
+    new NewSessionRequest(
+        ImmutableMap.of(),
+        new ImmutableCapabilities("browserName", "chrome", "goog:chromeOptions", options))
+        .apply(client);
+    first.apply(client);
+
+    assertEquals(ImmutableList.of("--cheese"), chromeArgs(client.bodies.get(0)));
+    assertEquals(ImmutableList.of("--peas"), chromeArgs(client.bodies.get(1)));
+    assertEquals(ImmutableList.of("--cheese"), chromeArgs(client.bodies.get(2)));
+  }
+
+  @Test
+  public void changingAValueThatIsNotAMapOrCollectionShouldNotServeAStalePayload()
+      throws IOException {
+    RecordingClient client = new RecordingClient();
+    Proxy proxy = new Proxy().setHttpProxy("cheese:8080");
+
+    NewSessionRequest first = new NewSessionRequest(
+        ImmutableMap.of(), new ImmutableCapabilities("browserName", "chrome", "proxy", proxy));
+
+    proxy.setHttpProxy("peas:8080");
+    first.apply(client);
+    new NewSessionRequest(
+        ImmutableMap.of(), new ImmutableCapabilities("browserName", "chrome", "proxy", proxy))
+        .apply(client);
+
+    assertEquals("cheese:8080", httpProxy(client.bodies.get(0)));
+    assertEquals("peas:8080", httpProxy(client.bodies.get(1)));
+  }
+
+  @Test
+  public void requestsWithEqualArraysShouldReuseTheEncodedPayload() throws IOException {
+    RecordingClient client = new RecordingClient();
+    long hits = NewSessionRequest.getPayloadCacheStats().hitCount();
+
+    for (int i = 0; i < 2; i++) {
+      new NewSessionRequest(
+          ImmutableMap.of(),
+          new ImmutableCapabilities(
+              "browserName", "chrome",
+              "goog:chromeOptions", ImmutableMap.of("args", new String[] {"--cheese"})))
+          .apply(client);
+    }
+
+    assertEquals(hits + 1, NewSessionRequest.getPayloadCacheStats().hitCount());
+    assertEquals(ImmutableList.of("--cheese"), chromeArgs(client.bodies.get(1)));
+  }
+
+  @Test
+  public void refreshingTheAdaptersShouldForgetTheEncodedPayloads() throws IOException {
+    RecordingClient client = new RecordingClient();
+    NewSessionRequest request =
+        new NewSessionRequest(ImmutableMap.of(), new ImmutableCapabilities("browserName", "peas"));
+    request.apply(client);
+
+    long misses = NewSessionRequest.getPayloadCacheStats().missCount();
+    AdapterRegistry.refresh();
+    request.apply(client);
+
+    assertEquals(misses + 1, NewSessionRequest.getPayloadCacheStats().missCount());
+  }
+
+  private static Object httpProxy(Map<String, Object> body) {
+    Map<?, ?> desired = (Map<?, ?>) body.get("desiredCapabilities");
+    return ((Map<?, ?>) desired.get("proxy")).get("httpProxy");
+  }
+
+  private static Object chromeArgs(Map<String, Object> body) {
+    Map<?, ?> desired = (Map<?, ?>) body.get("desiredCapabilities");
+    return ((Map<?, ?>) desired.get("goog:chromeOptions")).get("args");
+  }
+
+  private static class RecordingClient implements HttpClient {
+    private final List<Map<String, Object>> bodies = new ArrayList<>();
+    private final Map<String, Object> reply;
+
+    RecordingClient() {
+      this(ImmutableMap.of(
+          "value", ImmutableMap.of(
+              "sessionId", "1234",
+              "capabilities", ImmutableMap.of("browserName", "firefox"))));
+    }
+
+    RecordingClient(Map<String, Object> reply) {
+      this.reply = reply;
+    }
+
+    @Override
+    public HttpResponse execute(HttpRequest request, boolean followRedirects) {
+      bodies.add(TO_MAP.apply(request.getContentString()));
+
+      HttpResponse response = new HttpResponse();
+      response.setContent(TO_JSON.apply(reply).getBytes(UTF_8));
+      return response;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
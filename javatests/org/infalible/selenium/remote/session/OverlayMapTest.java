@@ -0,0 +1,50 @@
+package org.infalible.selenium.remote.session;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OverlayMapTest {
+
+  @Test
+  public void shouldLookLikeTheMergeOfBothMaps() {
+    Map<String, Object> always = ImmutableMap.of("pageLoadStrategy", "eager", "cheese:brie", true);
+    Map<String, Object> first = new HashMap<>();
+    first.put("browserName", "cheese");
+    first.put("browserVersion", null);
+
+    Map<String, Object> overlay = new OverlayMap(always, first);
+
+    Map<String, Object> merged = new HashMap<>(always);
+    merged.putAll(first);
+    assertEquals(merged, overlay);
+    assertEquals(merged.hashCode(), overlay.hashCode());
+    assertEquals(4, overlay.size());
+    assertTrue(overlay.containsKey("browserVersion"));
+    assertNull(overlay.get("browserVersion"));
+    assertEquals("eager", overlay.get("pageLoadStrategy"));
+    assertFalse(overlay.containsKey("platformName"));
+  }
+
+  @Test
+  public void shouldIterateOverTheBaseFirst() {
+    Map<String, Object> overlay = new OverlayMap(
+        ImmutableMap.of("a", 1, "b", 2),
+        ImmutableMap.of("c", 3));
+
+    assertEquals(ImmutableList.of("a", "b", "c"), ImmutableList.copyOf(overlay.keySet()));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void shouldNotBeModifiable() {
+    new OverlayMap(ImmutableMap.of(), ImmutableMap.of()).put("browserName", "cheese");
+  }
+}
@@ -0,0 +1,173 @@
+package org.infalible.selenium.remote.session;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import org.infalible.selenium.json.Json;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SpillFilePoolTest {
+
+  @Rule
+  public TemporaryFolder tempDir = new TemporaryFolder();
+
+  @Test
+  public void spillFilesShouldBeReusedAndEmptiedOnceReturned() throws IOException {
+    String json = Json.TO_JSON.apply(
+        ImmutableMap.of("desiredCapabilities", ImmutableMap.of("browserName", "cheese")));
+    PayloadMemoryBudget noMemory = new PayloadMemoryBudget(0, Duration.ZERO);
+
+    try (SpillFilePool pool = new SpillFilePool(tempDir.getRoot().toPath(), 1, Duration.ZERO)) {
+      for (int i = 0; i < 3; i++) {
+        try (NewSessionPayload payload =
+                 new NewSessionPayload(new StringReader(json), json.length(), noMemory, pool)) {
+          assertEquals(1, pool.getInUse());
+          assertEquals(1, payload.stream().count());
+        }
+        assertEquals(0, pool.getInUse());
+      }
+
+      assertEquals(3, pool.getLeaseCount());
+      assertTrue(pool.getBytesSpilled() > 0);
+      assertEquals(1, Files.list(tempDir.getRoot().toPath()).count());
+      assertEquals(0, Files.size(tempDir.getRoot().toPath().resolve("spill-0.json")));
+    }
+  }
+
+  @Test
+  public void sectionsShouldBeReadBackFromTheirPlaceInTheFile() throws IOException {
+    try (SpillFilePool pool = new SpillFilePool(tempDir.getRoot().toPath(), 1, Duration.ZERO);
+         SpillFilePool.Lease lease = pool.acquire()) {
+      try (OutputStream out = lease.newOutputStream()) {
+        out.write("[1][22][333]".getBytes(UTF_8));
+      }
+
+      try (InputStream in = lease.newInputStream(3, 4)) {
+        assertEquals("[22]", new String(ByteStreams.toByteArray(in), UTF_8));
+        assertEquals(-1, in.read());
+      }
+    }
+  }
+
+  @Test
+  public void shouldSpillToAFileOutsideThePoolWhenEverySpillFileIsInUse() throws IOException {
+    Path dir = tempDir.getRoot().toPath();
+    try (SpillFilePool pool = new SpillFilePool(dir, 1, Duration.ZERO)) {
+      try (SpillFilePool.Lease pooled = pool.acquire();
+           SpillFilePool.Lease overflow = pool.acquire()) {
+        try (OutputStream out = pooled.newOutputStream()) {
+          out.write("[1]".getBytes(UTF_8));
+        }
+        try (OutputStream out = overflow.newOutputStream()) {
+          out.write("[2]".getBytes(UTF_8));
+        }
+        try (InputStream in = overflow.newInputStream(0, 3)) {
+          assertEquals("[2]", new String(ByteStreams.toByteArray(in), UTF_8));
+        }
+
+        assertEquals(2, pool.getInUse());
+        assertEquals(2, Files.list(dir).count());
+      }
+
+      assertEquals(1, pool.getOverflowCount());
+      assertEquals(0, pool.getRefusedCount());
+      assertEquals(0, pool.getInUse());
+      assertEquals(1, Files.list(dir).count());
+    }
+  }
+
+  @Test
+  public void spillFilesThatAreNeverReturnedShouldBeReaped() throws IOException, InterruptedException {
+    try (SpillFilePool pool = new SpillFilePool(tempDir.getRoot().toPath(), 1, Duration.ZERO)) {
+      try (OutputStream out = pool.acquire().newOutputStream()) {
+        out.write("{}".getBytes(UTF_8));
+      }
+
+      for (int i = 0; i < 50 && pool.getReapedCount() == 0; i++) {
+        System.gc();
+        Thread.sleep(20);
+      }
+
+      assertEquals(1, pool.getReapedCount());
+      assertEquals(0, pool.getInUse());
+      pool.acquire().close();
+    }
+  }
+
+  @Test
+  public void deflatedPayloadsShouldReadBackTheSameButSpillLess() throws IOException {
+    String profile = Strings.repeat("UEsDBBQACAgIAGV0", 4096);
+    String json = Json.TO_JSON.apply(ImmutableMap.of(
+        "cloud:user", "bob",
+        "capabilities", ImmutableMap.of(
+            "alwaysMatch", ImmutableMap.of("browserName", "firefox"),
+            "firstMatch", ImmutableList.of(
+                ImmutableMap.of("moz:firefoxOptions", ImmutableMap.of("profile", profile)),
+                ImmutableMap.of("platformName", "linux")))));
+    PayloadMemoryBudget noMemory = new PayloadMemoryBudget(0, Duration.ZERO);
+
+    List<List<PayloadSection>> sections = new ArrayList<>();
+    List<Long> spilled = new ArrayList<>();
+    List<String> spillFiles = new ArrayList<>();
+    for (SpillFilePool.Encoding encoding : SpillFilePool.Encoding.values()) {
+      Path dir = tempDir.newFolder(encoding.name()).toPath();
+      try (SpillFilePool pool = new SpillFilePool(dir, 1, Duration.ZERO, encoding)) {
+        try (NewSessionPayload payload =
+                 new NewSessionPayload(new StringReader(json), json.length(), noMemory, pool)) {
+          sections.add(payload.stream().collect(Collectors.toList()));
+        }
+        spilled.add(pool.getBytesSpilled());
+        try (Stream<Path> files = Files.list(dir)) {
+          files.forEach(file -> spillFiles.add(file.getFileName().toString()));
+        }
+      }
+    }
+
+    assertEquals(sections.get(0), sections.get(1));
+    assertEquals(2, sections.get(1).size());
+    assertEquals("bob", sections.get(1).get(0).getMetadata().get("cloud:user"));
+    assertTrue(spilled.toString(), spilled.get(1) * 10 < spilled.get(0));
+    assertEquals(ImmutableList.of("spill-0.json", "spill-0.json.deflate"), spillFiles);
+  }
+
+  @Test
+  public void shouldClearOutSpillFilesLeftBehindByEarlierPools() throws IOException {
+    Path dir = tempDir.getRoot().toPath();
+    Files.write(dir.resolve("spill-0.json"), "{\"cheese\": true}".getBytes(UTF_8));
+    Files.write(dir.resolve("spill-7.json"), "{}".getBytes(UTF_8));
+    Files.write(dir.resolve("spill-3.json.deflate"), new byte[] {0x78, 0x01});
+    Path unrelated = Files.write(dir.resolve("cheese.txt"), "brie".getBytes(UTF_8));
+
+    SpillFilePool pool = new SpillFilePool(dir, 1, Duration.ZERO);
+    try {
+      assertEquals(0, Files.size(dir.resolve("spill-0.json")));
+      assertFalse(Files.exists(dir.resolve("spill-7.json")));
+      assertFalse(Files.exists(dir.resolve("spill-3.json.deflate")));
+      assertEquals("brie", new String(Files.readAllBytes(unrelated), UTF_8));
+    } finally {
+      pool.close();
+    }
+
+    assertFalse(Files.exists(dir.resolve("spill-0.json")));
+  }
+}